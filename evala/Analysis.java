@@ -0,0 +1,12 @@
+package evala;
+
+/** A front-end analysis driven by AnalysisPass. Instead of walking the tree
+ * itself, an analysis is told when the single shared traversal enters and
+ * leaves each node; it can ask the pass for the enclosing node.
+ */
+public interface Analysis {
+  default void enterStmt(Stmt stmt, AnalysisPass pass) {}
+  default void exitStmt(Stmt stmt, AnalysisPass pass) {}
+  default void enterExpr(Expr expr, AnalysisPass pass) {}
+  default void exitExpr(Expr expr, AnalysisPass pass) {}
+}
@@ -0,0 +1,127 @@
+package evala;
+
+import java.util.*;
+
+/** Walks a program once and notifies every registered Analysis on entry and
+ * exit of each Stmt/Expr, so adding an analysis doesn't add a tree walk.
+ * Children are visited in evaluation order (e.g. condition, then, else).
+ */
+public final class AnalysisPass implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private final List<Analysis> analyses;
+  private final Deque<Object> path = new ArrayDeque<>();   // enclosing nodes, innermost first
+  private int functionDepth = 0;
+  private boolean skip = false;
+
+  AnalysisPass(List<Analysis> analyses) {
+    this.analyses = analyses;
+  }
+
+  public AnalysisPass(Analysis... analyses) {
+    this(Arrays.asList(analyses));
+  }
+
+  public void walk(List<Stmt> program) {
+    for (Stmt s : program) if (s != null) stmt(s);
+  }
+
+  /** Node enclosing the one being entered/exited (null at the top level). */
+  Object parent() { return path.peek(); }
+
+  /** Number of function declarations enclosing the current node. */
+  int functionDepth() { return functionDepth; }
+
+  /**
+   * Called from enterStmt/enterExpr: don't visit this node's children, and
+   * don't tell analyses registered after the caller about this node at all.
+   */
+  void skipSubtree() { skip = true; }
+
+  private void stmt(Stmt s) {
+    if (s == null) return;
+    int entered = 0;
+    skip = false;
+    while (entered < analyses.size() && !skip) analyses.get(entered++).enterStmt(s, this);
+    if (!skip) {
+      path.push(s);
+      if (s instanceof Stmt.Function) functionDepth++;
+      s.accept(this);
+      if (s instanceof Stmt.Function) functionDepth--;
+      path.pop();
+    }
+    skip = false;
+    for (int i = entered - 1; i >= 0; i--) analyses.get(i).exitStmt(s, this);
+  }
+
+  private void expr(Expr e) {
+    if (e == null) return;
+    int entered = 0;
+    skip = false;
+    while (entered < analyses.size() && !skip) analyses.get(entered++).enterExpr(e, this);
+    if (!skip) {
+      path.push(e);
+      e.accept(this);
+      path.pop();
+    }
+    skip = false;
+    for (int i = entered - 1; i >= 0; i--) analyses.get(i).exitExpr(e, this);
+  }
+
+  // ---------------- Stmt children ----------------
+  @Override public Void visitBlockStmt(Stmt.Block stmt) {
+    for (Stmt s : stmt.statements) stmt(s);
+    return null;
+  }
+
+  @Override public Void visitExpressionStmt(Stmt.Expression stmt) { expr(stmt.expression); return null; }
+
+  @Override public Void visitFunctionStmt(Stmt.Function stmt) {
+    for (Stmt s : stmt.body) stmt(s);
+    return null;
+  }
+
+  @Override public Void visitIfStmt(Stmt.If stmt) {
+    expr(stmt.condition);
+    stmt(stmt.thenBranch);
+    stmt(stmt.elseBranch);
+    return null;
+  }
+
+  @Override public Void visitPrintStmt(Stmt.Print stmt) { expr(stmt.expression); return null; }
+  @Override public Void visitReturnStmt(Stmt.Return stmt) { expr(stmt.value); return null; }
+
+  @Override public Void visitWhileStmt(Stmt.While stmt) {
+    expr(stmt.condition);
+    stmt(stmt.body);
+    return null;
+  }
+
+  @Override public Void visitVarStmt(Stmt.Var stmt) { expr(stmt.initializer); return null; }
+  @Override public Void visitBreakStmt(Stmt.Break stmt) { return null; }
+
+  // ---------------- Expr children ----------------
+  @Override public Void visitAssignExpr(Expr.Assign expr) { expr(expr.value); return null; }
+
+  @Override public Void visitBinaryExpr(Expr.Binary expr) {
+    expr(expr.left);
+    expr(expr.right);
+    return null;
+  }
+
+  @Override public Void visitCallExpr(Expr.Call expr) {
+    expr(expr.callee);
+    for (Expr a : expr.arguments) expr(a);
+    return null;
+  }
+
+  @Override public Void visitGroupingExpr(Expr.Grouping expr) { expr(expr.expression); return null; }
+  @Override public Void visitLiteralExpr(Expr.Literal expr) { return null; }
+
+  @Override public Void visitLogicalExpr(Expr.Logical expr) {
+    expr(expr.left);
+    expr(expr.right);
+    return null;
+  }
+
+  @Override public Void visitUnaryExpr(Expr.Unary expr) { expr(expr.right); return null; }
+  @Override public Void visitVariableExpr(Expr.Variable expr) { return null; }
+}
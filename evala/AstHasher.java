@@ -0,0 +1,107 @@
+package evala;
+
+import java.util.List;
+
+/** Structural 64-bit hash of a subtree: node kinds, names, operators and
+ * literal values, but not line numbers, so moving a function around the file
+ * (or editing comments) doesn't change its hash.
+ */
+final class AstHasher implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private long hash = FNV_OFFSET;
+
+  static long hash(Stmt stmt) {
+    AstHasher h = new AstHasher();
+    h.stmt(stmt);
+    return h.hash;
+  }
+
+  private void mix(long v) {
+    for (int i = 0; i < 8; i++) {
+      hash ^= (v >>> (8 * i)) & 0xff;
+      hash *= FNV_PRIME;
+    }
+  }
+
+  private void mix(String s) {
+    if (s == null) { mix(-1); return; }
+    mix(s.length());
+    for (int i = 0; i < s.length(); i++) mix(s.charAt(i));
+  }
+
+  private void stmt(Stmt s) {
+    if (s == null) { mix(0); return; }
+    s.accept(this);
+  }
+
+  private void expr(Expr e) {
+    if (e == null) { mix(0); return; }
+    e.accept(this);
+  }
+
+  private void stmts(List<Stmt> list) {
+    mix(list.size());
+    for (Stmt s : list) stmt(s);
+  }
+
+  // ---------------- Stmt visitors ----------------
+  @Override public Void visitBlockStmt(Stmt.Block stmt) { mix(1); stmts(stmt.statements); return null; }
+  @Override public Void visitExpressionStmt(Stmt.Expression stmt) { mix(2); expr(stmt.expression); return null; }
+
+  @Override public Void visitFunctionStmt(Stmt.Function stmt) {
+    mix(3);
+    mix(stmt.name.lexeme);
+    mix(stmt.params.size());
+    for (Token p : stmt.params) mix(p.lexeme);
+    stmts(stmt.body);
+    return null;
+  }
+
+  @Override public Void visitIfStmt(Stmt.If stmt) {
+    mix(4); expr(stmt.condition); stmt(stmt.thenBranch); stmt(stmt.elseBranch);
+    return null;
+  }
+
+  @Override public Void visitPrintStmt(Stmt.Print stmt) { mix(5); expr(stmt.expression); return null; }
+  @Override public Void visitReturnStmt(Stmt.Return stmt) { mix(6); expr(stmt.value); return null; }
+  @Override public Void visitWhileStmt(Stmt.While stmt) { mix(7); expr(stmt.condition); stmt(stmt.body); return null; }
+  @Override public Void visitVarStmt(Stmt.Var stmt) { mix(8); mix(stmt.name.lexeme); expr(stmt.initializer); return null; }
+  @Override public Void visitBreakStmt(Stmt.Break stmt) { mix(9); return null; }
+
+  // ---------------- Expr visitors ----------------
+  @Override public Void visitAssignExpr(Expr.Assign expr) { mix(20); mix(expr.name.lexeme); expr(expr.value); return null; }
+
+  @Override public Void visitBinaryExpr(Expr.Binary expr) {
+    mix(21); mix(expr.operator.type.ordinal()); expr(expr.left); expr(expr.right);
+    return null;
+  }
+
+  @Override public Void visitCallExpr(Expr.Call expr) {
+    mix(22); expr(expr.callee);
+    mix(expr.arguments.size());
+    for (Expr a : expr.arguments) expr(a);
+    return null;
+  }
+
+  @Override public Void visitGroupingExpr(Expr.Grouping expr) { mix(23); expr(expr.expression); return null; }
+
+  @Override public Void visitLiteralExpr(Expr.Literal expr) {
+    mix(24);
+    Object v = expr.value;
+    if (v instanceof Double) { mix(1); mix(Double.doubleToLongBits((Double) v)); }
+    else if (v instanceof Boolean) { mix(2); mix((Boolean) v ? 1 : 0); }
+    else if (v instanceof String) { mix(3); mix((String) v); }
+    else mix(4);
+    return null;
+  }
+
+  @Override public Void visitLogicalExpr(Expr.Logical expr) {
+    mix(25); mix(expr.operator.type.ordinal()); expr(expr.left); expr(expr.right);
+    return null;
+  }
+
+  @Override public Void visitUnaryExpr(Expr.Unary expr) { mix(26); mix(expr.operator.type.ordinal()); expr(expr.right); return null; }
+  @Override public Void visitVariableExpr(Expr.Variable expr) { mix(27); mix(expr.name.lexeme); return null; }
+}
@@ -0,0 +1,88 @@
+package evala;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/** --batch: grade many submissions in one process and summarize the class.
+ * Each script is graded (not executed) in its own Session whose CodeReview/
+ * is next to the script, and its report is folded into ClassStats as soon as
+ * it is produced, so the batch size doesn't affect memory. Every submission
+ * is graded with the weights from the directory the batch was started in.
+ * Directories are searched for *.eva files, skipping generated EvalaTests_ files.
+ */
+final class Batch {
+    private Batch() {}
+
+    static void grade(List<String> paths) throws IOException {
+        // per-submission sessions have their own working directory
+        if (Evala.summaryFile != null) Evala.summaryFile = new File(Evala.summaryFile).getAbsolutePath();
+
+        Metrics.register();
+        // the grader's weights, not each student's: an evala-grading.properties next to a submission is ignored
+        Properties weights = Grader.loadWeights(Session.current().workDir);
+        ClassStats stats = new ClassStats();
+        for (String p : paths) {
+            Path path = Paths.get(p);
+            if (Files.isDirectory(path)) {
+                gradeTree(path, weights, stats);
+            } else {
+                gradeOne(path, weights, stats);
+            }
+        }
+
+        File summary = new File(Session.current().reviewDir(), "ClassSummary.md");
+        stats.writeTo(summary);
+        System.out.println("Class summary written to: CodeReview/ClassSummary.md");
+    }
+
+    // Grades dir's submissions in name order, one directory at a time, so only the
+    // listings of the directories on the current path are held, not the whole tree
+    private static void gradeTree(Path dir, Properties weights, ClassStats stats) throws IOException {
+        List<Path> entries;
+        try (Stream<Path> list = Files.list(dir)) {
+            entries = list.sorted().toList();
+        }
+        for (Path entry : entries) {
+            if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                if (!entry.getFileName().toString().equals("CodeReview")) gradeTree(entry, weights, stats);
+            } else if (isSubmission(entry)) {
+                gradeOne(entry, weights, stats);
+            }
+        }
+    }
+
+    private static boolean isSubmission(Path p) {
+        String name = p.getFileName().toString();
+        return Files.isRegularFile(p) && name.endsWith(".eva") && !name.startsWith("EvalaTests_")
+            && !p.toString().contains(File.separator + "CodeReview" + File.separator);
+    }
+
+    private static void gradeOne(Path script, Properties weights, ClassStats stats) {
+        Path abs = script.toAbsolutePath();
+        Session session = new Session(abs.getParent().toFile());
+        session.script = script.toString();
+        session.weights = weights;
+        Session.begin(session);
+        try {
+            System.out.println("=== " + script);
+            String source = new String(Files.readAllBytes(abs), Charset.defaultCharset());
+            Evala.run(source, new Interpreter(), true, false);
+            if (session.hadError || session.report == null) stats.addFailure();
+            else stats.add(session.report);
+        } catch (IOException | RuntimeException | StackOverflowError e) {
+            // one broken submission shouldn't stop the batch
+            System.err.println("Could not grade " + script + ": " + e);
+            stats.addFailure();
+        } finally {
+            Session.end();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package evala;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+/** Running statistics over the GradeReports of a batch, in constant memory:
+ * nothing per submission is kept, only
+ * - fixed-bin histograms of the total and of each rule's score,
+ * - P-square estimates of the total's quantiles,
+ * - Space-Saving counters of the most common unused parameters and magic numbers.
+ */
+final class ClassStats {
+  private static final int BINS = 10;
+  private static final double[] QUANTILES = {0.10, 0.25, 0.50, 0.75, 0.90};
+  private static final int TRACKED_FINDINGS = 64;   // counters per top-findings table
+  private static final int SHOWN_FINDINGS = 10;
+
+  private long graded = 0;
+  private long failed = 0;
+  private final Histogram totals = new Histogram();
+  private final P2Quantile[] quantiles = new P2Quantile[QUANTILES.length];
+  private final Map<String, Histogram> perRule = new LinkedHashMap<>();   // one entry per rule id
+  private final SpaceSaving unusedParams = new SpaceSaving(TRACKED_FINDINGS);
+  private final SpaceSaving magicNumbers = new SpaceSaving(TRACKED_FINDINGS);
+
+  ClassStats() {
+    for (int i = 0; i < QUANTILES.length; i++) quantiles[i] = new P2Quantile(QUANTILES[i]);
+  }
+
+  /** A submission that couldn't be graded (e.g. it doesn't parse). */
+  void addFailure() { failed++; }
+
+  void add(GradeReport report) {
+    graded++;
+    double total = report.total();
+    totals.add(total, report.maxTotal());
+    for (P2Quantile q : quantiles) q.add(total);
+
+    List<String> ids = report.ruleIds();
+    List<GradingRule.Section> sections = report.sections();
+    for (int i = 0; i < sections.size(); i++) {
+      GradingRule.Section s = sections.get(i);
+      perRule.computeIfAbsent(ids.get(i), k -> new Histogram()).add(s.score, s.weight);
+      if (ids.get(i).equals("unused-params")) {
+        for (String f : s.details()) unusedParams.add(f);
+      } else if (ids.get(i).equals("magic-numbers")) {
+        // "line 12: 3.14" -> "3.14"
+        for (String f : s.details()) magicNumbers.add(f.substring(f.indexOf(':') + 1).trim());
+      }
+    }
+  }
+
+  void writeTo(File file) {
+    try (PrintWriter out = new PrintWriter(file)) {
+      out.println("# Evala class summary\n");
+      out.printf("Submissions graded: %d%n", graded);
+      if (failed > 0) out.printf("Submissions not graded (errors): %d%n", failed);
+      if (graded == 0) return;
+      out.println();
+
+      out.printf("Total grade: mean %.2f/%s%n", totals.mean(), totals.max);
+      for (int i = 0; i < QUANTILES.length; i++) {
+        out.printf("  p%d: %.2f%n", Math.round(QUANTILES[i] * 100), quantiles[i].estimate());
+      }
+      out.println();
+      totals.print(out);
+
+      for (Map.Entry<String, Histogram> e : perRule.entrySet()) {
+        Histogram h = e.getValue();
+        out.printf("%n## %s: mean %.2f/%s%n", e.getKey(), h.mean(), h.max);
+        if (h.max > 0) h.print(out);
+      }
+
+      out.println("\n## Most common unused parameters");
+      unusedParams.print(out, SHOWN_FINDINGS);
+      out.println("\n## Most common magic numbers");
+      magicNumbers.print(out, SHOWN_FINDINGS);
+    } catch (IOException e) {
+      System.err.println("Failed to write class summary: " + e);
+    }
+  }
+
+  /** Counts in BINS equal-width bins over [0, max]; max is taken from the first value. */
+  private static final class Histogram {
+    final long[] counts = new long[BINS];
+    double max = -1;
+    double sum = 0;
+    long n = 0;
+
+    void add(double value, double outOf) {
+      if (max < 0) max = outOf;
+      n++;
+      sum += value;
+      int bin = max <= 0 ? 0 : (int) (value / max * BINS);
+      counts[Math.max(0, Math.min(BINS - 1, bin))]++;
+    }
+
+    double mean() { return n == 0 ? 0 : sum / n; }
+
+    void print(PrintWriter out) {
+      long most = 1;
+      for (long c : counts) most = Math.max(most, c);
+      for (int i = 0; i < BINS; i++) {
+        String bar = "#".repeat((int) (counts[i] * 40 / most));
+        out.printf("  %6.1f - %6.1f | %-40s %d%n", max * i / BINS, max * (i + 1) / BINS, bar, counts[i]);
+      }
+    }
+  }
+
+  /** Jain & Chlamtac's P-square estimator: one quantile from five markers. */
+  private static final class P2Quantile {
+    private final double p;
+    private final double[] q = new double[5];    // marker heights
+    private final double[] pos = new double[5];  // actual marker positions
+    private final double[] want = new double[5]; // desired positions
+    private final double[] step = new double[5];
+    private int count = 0;
+
+    P2Quantile(double p) {
+      this.p = p;
+      want[0] = 0; want[1] = 2 * p; want[2] = 4 * p; want[3] = 2 + 2 * p; want[4] = 4;
+      step[0] = 0; step[1] = p / 2; step[2] = p; step[3] = (1 + p) / 2; step[4] = 1;
+    }
+
+    void add(double x) {
+      if (count < 5) {
+        q[count++] = x;
+        if (count == 5) {
+          Arrays.sort(q);
+          for (int i = 0; i < 5; i++) pos[i] = i;
+        }
+        return;
+      }
+      count++;
+
+      int k;
+      if (x < q[0]) { q[0] = x; k = 0; }
+      else if (x >= q[4]) { q[4] = x; k = 3; }
+      else { k = 0; while (x >= q[k + 1]) k++; }
+      for (int i = k + 1; i < 5; i++) pos[i]++;
+      for (int i = 0; i < 5; i++) want[i] += step[i];
+
+      for (int i = 1; i <= 3; i++) {
+        double d = want[i] - pos[i];
+        if ((d >= 1 && pos[i + 1] - pos[i] > 1) || (d <= -1 && pos[i - 1] - pos[i] < -1)) {
+          int s = d > 0 ? 1 : -1;
+          double candidate = parabolic(i, s);
+          if (q[i - 1] < candidate && candidate < q[i + 1]) q[i] = candidate;
+          else q[i] = q[i] + s * (q[i + s] - q[i]) / (pos[i + s] - pos[i]);
+          pos[i] += s;
+        }
+      }
+    }
+
+    private double parabolic(int i, int s) {
+      return q[i] + s / (pos[i + 1] - pos[i - 1])
+          * ((pos[i] - pos[i - 1] + s) * (q[i + 1] - q[i]) / (pos[i + 1] - pos[i])
+           + (pos[i + 1] - pos[i] - s) * (q[i] - q[i - 1]) / (pos[i] - pos[i - 1]));
+    }
+
+    double estimate() {
+      if (count >= 5) return q[2];
+      if (count == 0) return 0;
+      double[] seen = Arrays.copyOf(q, count);
+      Arrays.sort(seen);
+      return seen[(int) Math.min(count - 1, Math.round(p * (count - 1)))];
+    }
+  }
+
+  /** Metwally et al.'s Space-Saving top-k: at most `capacity` counters; a new
+   * item replaces the smallest one and inherits its count as possible error. */
+  private static final class SpaceSaving {
+    private final int capacity;
+    private final Map<String, long[]> counters = new HashMap<>();   // item -> {count, error}
+
+    SpaceSaving(int capacity) { this.capacity = capacity; }
+
+    void add(String item) {
+      long[] c = counters.get(item);
+      if (c != null) { c[0]++; return; }
+      if (counters.size() < capacity) { counters.put(item, new long[] {1, 0}); return; }
+      String smallest = null;
+      long min = Long.MAX_VALUE;
+      for (Map.Entry<String, long[]> e : counters.entrySet()) {
+        if (e.getValue()[0] < min) { min = e.getValue()[0]; smallest = e.getKey(); }
+      }
+      counters.remove(smallest);
+      counters.put(item, new long[] {min + 1, min});
+    }
+
+    void print(PrintWriter out, int limit) {
+      if (counters.isEmpty()) { out.println("  (none)"); return; }
+      List<Map.Entry<String, long[]>> top = new ArrayList<>(counters.entrySet());
+      top.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+      for (Map.Entry<String, long[]> e : top.subList(0, Math.min(limit, top.size()))) {
+        long[] c = e.getValue();
+        if (c[1] == 0) out.printf("  %6d  %s%n", c[0], e.getKey());
+        else out.printf("  ~%5d  %s%n", c[0], e.getKey());   // over-estimate by at most c[1]
+      }
+    }
+  }
+}
@@ -0,0 +1,350 @@
+package evala;
+
+import java.util.*;
+
+/** Statement-level control-flow graph of one function body, or of the
+ * program's top-level statements.
+ *
+ * Each simple statement (var, expression, print, return, break, nested fun)
+ * is one node, and If/While contribute a node for their condition. Local
+ * variables -- parameters, vars and nested function names, resolved through
+ * block scopes the way the interpreter's environments nest -- are numbered
+ * densely so per-node uses and definitions are BitSets. Globals are not
+ * tracked: any function may read or write them. In the top-level graph the
+ * globals are numbered like locals but marked captured, so only locals of
+ * top-level blocks get dead-store and read-before-assignment checks, while
+ * unreachable code is found as in a function.
+ *
+ * The graph only describes the code; DataFlow runs liveness and
+ * definite-assignment over it, and an optimizer can do the same.
+ */
+final class ControlFlowGraph {
+
+  static final class Node {
+    final int index;
+    final Stmt stmt;          // for If/While only the condition is evaluated here
+    final int line;
+    final boolean lineApproximate;        // no token of its own: line of the code before it
+    final BitSet use = new BitSet();      // locals read
+    final BitSet def = new BitSet();      // locals given a new value (including `var x;`, which stores nil)
+    final BitSet assign = new BitSet();   // defs that store a computed value
+    final List<Node> successors = new ArrayList<>();
+    final List<Node> predecessors = new ArrayList<>();
+    boolean reachable = false;
+
+    Node(int index, Stmt stmt, int line, boolean lineApproximate) {
+      this.index = index;
+      this.stmt = stmt;
+      this.line = line;
+      this.lineApproximate = lineApproximate;
+    }
+
+    /** "line 12", or "after line 11" when the statement has no token to locate it. */
+    String where() {
+      return (lineApproximate ? "after line " : "line ") + line;
+    }
+  }
+
+  final String fnName;
+  final Node entry;
+  final Node exit;
+  final List<Node> nodes = new ArrayList<>();
+  final List<String> variables = new ArrayList<>();   // local id -> name
+  final BitSet params = new BitSet();
+  final BitSet captured = new BitSet();   // referenced by a nested function, so used at unknown times
+  // First statement of each run of statements that follows a return/break
+  final List<Node> unreachableStarts = new ArrayList<>();
+
+  private ControlFlowGraph(String fnName) {
+    this.fnName = fnName;
+    this.entry = newNode(null, -1, true);
+    this.exit = newNode(null, -1, true);
+  }
+
+  private Node newNode(Stmt stmt, int line, boolean lineApproximate) {
+    Node n = new Node(nodes.size(), stmt, line, lineApproximate);
+    nodes.add(n);
+    return n;
+  }
+
+  /** The top-level graph, then graphs for every function in the program, nested ones included, in source order. */
+  static List<ControlFlowGraph> buildAll(List<Stmt> program) {
+    List<ControlFlowGraph> graphs = new ArrayList<>();
+    graphs.add(buildTopLevel(program));
+    Deque<Stmt> work = new ArrayDeque<>();
+    for (int i = program.size() - 1; i >= 0; i--) if (program.get(i) != null) work.push(program.get(i));
+    while (!work.isEmpty()) {
+      Stmt s = work.pop();
+      if (s instanceof Stmt.Function) {
+        graphs.add(build((Stmt.Function) s));
+        List<Stmt> body = ((Stmt.Function) s).body;
+        for (int i = body.size() - 1; i >= 0; i--) if (body.get(i) != null) work.push(body.get(i));
+      } else if (s instanceof Stmt.Block) {
+        List<Stmt> inner = ((Stmt.Block) s).statements;
+        for (int i = inner.size() - 1; i >= 0; i--) if (inner.get(i) != null) work.push(inner.get(i));
+      } else if (s instanceof Stmt.If) {
+        Stmt.If is = (Stmt.If) s;
+        if (is.elseBranch != null) work.push(is.elseBranch);
+        if (is.thenBranch != null) work.push(is.thenBranch);
+      } else if (s instanceof Stmt.While) {
+        if (((Stmt.While) s).body != null) work.push(((Stmt.While) s).body);
+      }
+    }
+    return graphs;
+  }
+
+  static ControlFlowGraph build(Stmt.Function fn) {
+    ControlFlowGraph g = new ControlFlowGraph(fn.name == null ? "<anonymous>" : fn.name.lexeme);
+    new Builder(g, fn.params, fn.body, fn.name == null ? -1 : fn.name.line, false).run();
+    return g;
+  }
+
+  /** Graph of the program's top-level statements (function bodies are only nested-fun nodes). */
+  static ControlFlowGraph buildTopLevel(List<Stmt> program) {
+    ControlFlowGraph g = new ControlFlowGraph("top level");
+    new Builder(g, List.of(), program, -1, true).run();
+    return g;
+  }
+
+  /** Line of the first token in an expression, or -1. */
+  static int line(Expr e) {
+    if (e instanceof Expr.Variable) return ((Expr.Variable) e).name.line;
+    if (e instanceof Expr.Assign) return ((Expr.Assign) e).name.line;
+    if (e instanceof Expr.Binary) {
+      int l = line(((Expr.Binary) e).left);
+      return l >= 0 ? l : ((Expr.Binary) e).operator.line;
+    }
+    if (e instanceof Expr.Logical) {
+      int l = line(((Expr.Logical) e).left);
+      return l >= 0 ? l : ((Expr.Logical) e).operator.line;
+    }
+    if (e instanceof Expr.Unary) return ((Expr.Unary) e).operator.line;
+    if (e instanceof Expr.Grouping) return line(((Expr.Grouping) e).expression);
+    if (e instanceof Expr.Call) {
+      int l = line(((Expr.Call) e).callee);
+      return l >= 0 ? l : ((Expr.Call) e).paren.line;
+    }
+    return -1;
+  }
+
+  /** Walks the body once, linking nodes as it goes. */
+  private static final class Builder {
+    private final ControlFlowGraph g;
+    private final List<Token> params;
+    private final List<Stmt> body;
+    private final boolean globalsEscape;    // outermost scope is the globals: any call may touch them
+    private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+    private final Deque<List<Node>> loopBreaks = new ArrayDeque<>();
+    private List<Node> frontier = new ArrayList<>();   // nodes control falls out of
+    private boolean inUnreachable = false;
+    private int lastLine;
+
+    Builder(ControlFlowGraph g, List<Token> params, List<Stmt> body, int firstLine, boolean globalsEscape) {
+      this.g = g;
+      this.params = params;
+      this.body = body;
+      this.lastLine = firstLine;
+      this.globalsEscape = globalsEscape;
+    }
+
+    void run() {
+      scopes.push(new HashMap<>());
+      for (Token p : params) g.params.set(declare(p.lexeme));
+      frontier.add(g.entry);
+      statements(body);
+      link(frontier, g.exit);
+      if (globalsEscape) {
+        for (int id : scopes.peekLast().values()) g.captured.set(id);
+      }
+
+      // reachability from the entry
+      Deque<Node> work = new ArrayDeque<>();
+      g.entry.reachable = true;
+      work.push(g.entry);
+      while (!work.isEmpty()) {
+        for (Node s : work.pop().successors) {
+          if (!s.reachable) {
+            s.reachable = true;
+            work.push(s);
+          }
+        }
+      }
+    }
+
+    private void statements(List<Stmt> list) {
+      boolean wasUnreachable = inUnreachable;
+      boolean pendingStart = false;     // waiting for the first node of dead code to report
+      for (Stmt s : list) {
+        if (s == null) continue;
+        if (frontier.isEmpty() && !inUnreachable) {
+          inUnreachable = true;
+          pendingStart = true;
+        }
+        int before = g.nodes.size();
+        statement(s);
+        if (pendingStart && g.nodes.size() > before) {
+          g.unreachableStarts.add(g.nodes.get(before));
+          pendingStart = false;
+        }
+      }
+      inUnreachable = wasUnreachable;
+    }
+
+    private void statement(Stmt s) {
+      if (s instanceof Stmt.Block) {
+        scopes.push(new HashMap<>());
+        statements(((Stmt.Block) s).statements);
+        scopes.pop();
+      } else if (s instanceof Stmt.Var) {
+        Stmt.Var v = (Stmt.Var) s;
+        Node n = node(s, v.name.line);
+        uses(n, v.initializer);
+        int id = declare(v.name.lexeme);    // after the initializer, as in the interpreter
+        n.def.set(id);
+        if (v.initializer != null) n.assign.set(id);
+      } else if (s instanceof Stmt.Expression) {
+        Expr e = ((Stmt.Expression) s).expression;
+        uses(node(s, line(e)), e);
+      } else if (s instanceof Stmt.Print) {
+        Expr e = ((Stmt.Print) s).expression;
+        uses(node(s, line(e)), e);
+      } else if (s instanceof Stmt.Return) {
+        Stmt.Return r = (Stmt.Return) s;
+        Node n = node(s, r.keyword.line);
+        uses(n, r.value);
+        link(frontier, g.exit);
+        frontier = new ArrayList<>();
+      } else if (s instanceof Stmt.Break) {
+        node(s, -1);
+        if (!loopBreaks.isEmpty()) loopBreaks.peek().addAll(frontier);
+        frontier = new ArrayList<>();
+      } else if (s instanceof Stmt.If) {
+        Stmt.If is = (Stmt.If) s;
+        Node cond = node(s, line(is.condition));
+        uses(cond, is.condition);
+        statement(is.thenBranch);
+        List<Node> afterThen = frontier;
+        frontier = new ArrayList<>(List.of(cond));
+        if (is.elseBranch != null) statement(is.elseBranch);
+        frontier.addAll(afterThen);
+      } else if (s instanceof Stmt.While) {
+        Stmt.While w = (Stmt.While) s;
+        Node cond = node(s, line(w.condition));
+        uses(cond, w.condition);
+        loopBreaks.push(new ArrayList<>());
+        statement(w.body);
+        link(frontier, cond);
+        frontier = loopBreaks.pop();
+        // `while (true)` (and `for (;;)`) only leaves through break
+        boolean alwaysTrue = w.condition instanceof Expr.Literal
+            && Boolean.TRUE.equals(((Expr.Literal) w.condition).value);
+        if (!alwaysTrue) frontier.add(cond);
+      } else if (s instanceof Stmt.Function) {
+        Stmt.Function inner = (Stmt.Function) s;
+        Node n = node(s, inner.name == null ? -1 : inner.name.line);
+        if (inner.name != null) {
+          int id = declare(inner.name.lexeme);
+          n.def.set(id);
+          n.assign.set(id);
+        }
+        // Whatever the nested function mentions from here may be read or written whenever it's called
+        BitSet mentioned = new BitSet();
+        mentions(inner, mentioned);
+        n.use.or(mentioned);
+        g.captured.or(mentioned);
+      }
+    }
+
+    private Node node(Stmt s, int line) {
+      if (line >= 0) lastLine = line;
+      Node n = g.newNode(s, line >= 0 ? line : lastLine, line < 0);
+      link(frontier, n);
+      frontier = new ArrayList<>(List.of(n));
+      return n;
+    }
+
+    private static void link(List<Node> from, Node to) {
+      for (Node f : from) {
+        f.successors.add(to);
+        to.predecessors.add(f);
+      }
+    }
+
+    private int declare(String name) {
+      Map<String, Integer> scope = scopes.peek();
+      Integer id = scope.get(name);
+      if (id == null) {
+        id = g.variables.size();
+        g.variables.add(name);
+        scope.put(name, id);
+      }
+      return id;
+    }
+
+    private int resolve(String name) {
+      for (Map<String, Integer> scope : scopes) {
+        Integer id = scope.get(name);
+        if (id != null) return id;
+      }
+      return -1;
+    }
+
+    // Reads/assignments of locals in an expression
+    private void uses(Node n, Expr e) {
+      if (e == null) return;
+      if (e instanceof Expr.Variable) {
+        int id = resolve(((Expr.Variable) e).name.lexeme);
+        if (id >= 0) n.use.set(id);
+      } else if (e instanceof Expr.Assign) {
+        Expr.Assign a = (Expr.Assign) e;
+        uses(n, a.value);
+        int id = resolve(a.name.lexeme);
+        if (id >= 0) {
+          n.def.set(id);
+          n.assign.set(id);
+        }
+      } else if (e instanceof Expr.Binary) {
+        uses(n, ((Expr.Binary) e).left);
+        uses(n, ((Expr.Binary) e).right);
+      } else if (e instanceof Expr.Logical) {
+        uses(n, ((Expr.Logical) e).left);
+        uses(n, ((Expr.Logical) e).right);
+      } else if (e instanceof Expr.Unary) {
+        uses(n, ((Expr.Unary) e).right);
+      } else if (e instanceof Expr.Grouping) {
+        uses(n, ((Expr.Grouping) e).expression);
+      } else if (e instanceof Expr.Call) {
+        uses(n, ((Expr.Call) e).callee);
+        for (Expr a : ((Expr.Call) e).arguments) uses(n, a);
+      }
+    }
+
+    // Locals of this function named anywhere inside a nested function (shadowing ignored: conservative)
+    private void mentions(Stmt s, BitSet out) {
+      if (s == null) return;
+      Node scratch = new Node(-1, s, -1, true);
+      if (s instanceof Stmt.Function) {
+        for (Stmt b : ((Stmt.Function) s).body) mentions(b, out);
+      } else if (s instanceof Stmt.Block) {
+        for (Stmt b : ((Stmt.Block) s).statements) mentions(b, out);
+      } else if (s instanceof Stmt.If) {
+        uses(scratch, ((Stmt.If) s).condition);
+        mentions(((Stmt.If) s).thenBranch, out);
+        mentions(((Stmt.If) s).elseBranch, out);
+      } else if (s instanceof Stmt.While) {
+        uses(scratch, ((Stmt.While) s).condition);
+        mentions(((Stmt.While) s).body, out);
+      } else if (s instanceof Stmt.Var) {
+        uses(scratch, ((Stmt.Var) s).initializer);
+      } else if (s instanceof Stmt.Expression) {
+        uses(scratch, ((Stmt.Expression) s).expression);
+      } else if (s instanceof Stmt.Print) {
+        uses(scratch, ((Stmt.Print) s).expression);
+      } else if (s instanceof Stmt.Return) {
+        uses(scratch, ((Stmt.Return) s).value);
+      }
+      out.or(scratch.use);
+      out.or(scratch.def);
+    }
+  }
+}
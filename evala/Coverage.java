@@ -0,0 +1,149 @@
+package evala;
+
+import java.util.*;
+
+/** Statement and branch coverage collected while runTests executes TestCases.
+ * Every function under test is numbered once when first registered; hits are
+ * then recorded in one BitSet per function, indexed by node id.
+ * - statement ids: every non-block statement in the body
+ * - branch ids: two bits per If/While (2k = taken, 2k+1 = not taken)
+ */
+final class Coverage {
+
+  public static final class FunctionCoverage {
+    final String fnName;
+    final BitSet statements = new BitSet();
+    final BitSet branches = new BitSet();
+    int statementCount = 0;
+    int branchCount = 0;      // number of branch outcomes (2 per If/While)
+
+    FunctionCoverage(String name) { this.fnName = name; }
+
+    int statementsHit() { return statements.cardinality(); }
+    int branchesHit() { return branches.cardinality(); }
+  }
+
+  // A node's position inside its function's bitsets
+  private static final class Probe {
+    final FunctionCoverage fn;
+    final int id;
+    Probe(FunctionCoverage fn, int id) { this.fn = fn; this.id = id; }
+  }
+
+  /** Thrown when a run executes more statements than allowed by limitSteps. */
+  static final class StepLimitExceeded extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    StepLimitExceeded() { super(null, null, false, false); }
+  }
+
+  private long stepsLeft = Long.MAX_VALUE;
+
+  private final Map<Stmt, Probe> statementProbes = new IdentityHashMap<>();
+  private final Map<Stmt, Probe> branchProbes = new IdentityHashMap<>();
+  private final Map<Stmt.Function, FunctionCoverage> functions = new LinkedHashMap<>();
+
+  /** Number the statements and branch points of fn (only the first time it is seen). */
+  FunctionCoverage register(Stmt.Function fn) {
+    FunctionCoverage fc = functions.get(fn);
+    if (fc != null) return fc;
+    fc = new FunctionCoverage(fn.name == null ? "<anonymous>" : fn.name.lexeme);
+    functions.put(fn, fc);
+    Numberer n = new Numberer(fc);
+    for (Stmt s : fn.body) if (s != null) s.accept(n);
+    return fc;
+  }
+
+  /** Guard against non-terminating candidates when executing code in-process. */
+  void limitSteps(long steps) { this.stepsLeft = steps; }
+
+  void statement(Stmt stmt) {
+    if (--stepsLeft < 0) throw new StepLimitExceeded();
+    Probe p = statementProbes.get(stmt);
+    if (p != null) p.fn.statements.set(p.id);
+  }
+
+  void branch(Stmt stmt, boolean taken) {
+    Probe p = branchProbes.get(stmt);
+    if (p != null) p.fn.branches.set(2 * p.id + (taken ? 0 : 1));
+  }
+
+  Collection<FunctionCoverage> functions() { return functions.values(); }
+
+  /** Total statements + branch outcomes hit so far, across all functions. */
+  int covered() {
+    int n = 0;
+    for (FunctionCoverage fc : functions.values()) n += fc.statementsHit() + fc.branchesHit();
+    return n;
+  }
+
+  /** Total statements + branch outcomes that could be hit. */
+  int coverable() {
+    int n = 0;
+    for (FunctionCoverage fc : functions.values()) n += fc.statementCount + fc.branchCount;
+    return n;
+  }
+
+  /** One line per function, used both for the terminal and the grade report. */
+  List<String> summaryLines() {
+    List<String> lines = new ArrayList<>();
+    for (FunctionCoverage fc : functions.values()) {
+      lines.add(String.format("function %s: statements %d/%d (%.1f%%), branches %d/%d (%.1f%%)",
+          fc.fnName,
+          fc.statementsHit(), fc.statementCount, percent(fc.statementsHit(), fc.statementCount),
+          fc.branchesHit(), fc.branchCount, percent(fc.branchesHit(), fc.branchCount)));
+    }
+    return lines;
+  }
+
+  private static double percent(int hit, int total) {
+    return total == 0 ? 100.0 : 100.0 * hit / total;
+  }
+
+  // Assigns dense ids to the statements and branch points of one function body
+  private final class Numberer implements Stmt.Visitor<Void> {
+    private final FunctionCoverage fc;
+    private int branchPoints = 0;
+
+    Numberer(FunctionCoverage fc) { this.fc = fc; }
+
+    private void number(Stmt stmt) {
+      statementProbes.put(stmt, new Probe(fc, fc.statementCount++));
+    }
+
+    private void branchPoint(Stmt stmt) {
+      branchProbes.put(stmt, new Probe(fc, branchPoints++));
+      fc.branchCount += 2;
+    }
+
+    @Override public Void visitBlockStmt(Stmt.Block stmt) {
+      for (Stmt s : stmt.statements) if (s != null) s.accept(this);
+      return null;
+    }
+
+    @Override public Void visitExpressionStmt(Stmt.Expression stmt) { number(stmt); return null; }
+
+    // a nested function's body is its own: it is numbered if that function is registered
+    @Override public Void visitFunctionStmt(Stmt.Function stmt) { number(stmt); return null; }
+
+    @Override public Void visitIfStmt(Stmt.If stmt) {
+      number(stmt);
+      branchPoint(stmt);
+      stmt.thenBranch.accept(this);
+      if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+      return null;
+    }
+
+    @Override public Void visitPrintStmt(Stmt.Print stmt) { number(stmt); return null; }
+    @Override public Void visitReturnStmt(Stmt.Return stmt) { number(stmt); return null; }
+    @Override public Void visitVarStmt(Stmt.Var stmt) { number(stmt); return null; }
+    @Override public Void visitBreakStmt(Stmt.Break stmt) { number(stmt); return null; }
+
+    @Override public Void visitWhileStmt(Stmt.While stmt) {
+      number(stmt);
+      branchPoint(stmt);
+      stmt.body.accept(this);
+      return null;
+    }
+  }
+}
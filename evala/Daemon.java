@@ -0,0 +1,212 @@
+package evala;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import jdk.net.ExtendedSocketOptions;
+import jdk.net.UnixDomainPrincipal;
+
+/**
+ * Grading daemon: keeps one warm JVM listening on a Unix-domain socket so
+ * grading thousands of small files doesn't pay JVM startup and a cold
+ * interpreter every time. Each request runs on its own thread with a fresh
+ * Interpreter and Session, and its stdout/stderr are captured and sent back.
+ *
+ * Protocol (one request per connection):
+ *   request:  "<grade|run|test>\t<working dir>\t<script path>\n"
+ *   response: "<exit status>\n" followed by everything the run printed
+ *
+ * grade = static grading + test generation, run = the normal CLI pipeline,
+ * test = execute only (e.g. an EvalaTests_*.eva file) without regrading.
+ *
+ * A request reads and writes files with the daemon owner's rights, so only
+ * that user may send one: the default socket lives in a directory only the
+ * owner can enter, every socket is made owner-only once bound, and a
+ * request from any other user is refused with status 77.
+ */
+final class Daemon {
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private Daemon() {}
+
+    static Path defaultSocket() {
+        return Paths.get(System.getProperty("java.io.tmpdir"),
+                "evala-" + System.getProperty("user.name"), "daemon.sock");
+    }
+
+    static void serve(Path socket) throws IOException {
+        ThreadOutput.install();
+        Metrics.register();
+        ExecutorService workers = newWorkerPool();
+
+        if (socket.equals(defaultSocket())) privateDirectory(socket.getParent());
+        if (isLive(socket)) {
+            System.err.println("Evala daemon: another daemon is already listening on " + socket);
+            System.exit(75);
+        }
+        Files.deleteIfExists(socket);   // stale socket from a daemon that is gone
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            socket.toFile().deleteOnExit();
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+            UserPrincipal owner = Files.getOwner(socket);
+            System.out.println("Evala daemon listening on " + socket);
+
+            for (;;) {
+                SocketChannel connection = server.accept();
+                workers.execute(() -> handle(connection, owner));
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    // Create dir readable by its owner only, or make sure an existing one is ours and private
+    private static void privateDirectory(Path dir) throws IOException {
+        Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rwx------");
+        if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+            Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(ownerOnly));
+        } else if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)
+                || !Files.getOwner(dir, LinkOption.NOFOLLOW_LINKS).getName().equals(System.getProperty("user.name"))) {
+            throw new IOException(dir + " is not a directory owned by " + System.getProperty("user.name"));
+        }
+        Files.setPosixFilePermissions(dir, ownerOnly);
+    }
+
+    // Whether a daemon answers on socket; a leftover file nobody listens on refuses the connection
+    private static boolean isLive(Path socket) throws IOException {
+        if (!Files.exists(socket)) return false;
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            return true;
+        } catch (java.net.ConnectException e) {
+            return false;
+        }
+    }
+
+    // Virtual threads when running on Java 21+, a cached pool otherwise
+    private static ExecutorService newWorkerPool() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static void handle(SocketChannel connection, UserPrincipal owner) {
+        try (connection) {
+            BufferedReader in = new BufferedReader(Channels.newReader(connection, CHARSET));
+            String request = in.readLine();
+            if (request == null) return;    // a liveness probe from another daemon starting up
+
+            ByteArrayOutputStream captured = new ByteArrayOutputStream();
+            int status;
+            UnixDomainPrincipal peer = connection.getOption(ExtendedSocketOptions.SO_PEERCRED);
+            if (peer.user().equals(owner)) {
+                status = execute(request, captured);
+            } else {
+                System.err.println("Evala daemon: refused a request from user " + peer.user().getName());
+                captured.writeBytes(("This daemon only serves " + owner.getName() + "\n").getBytes(CHARSET));
+                status = 77;
+            }
+
+            Writer out = Channels.newWriter(connection, CHARSET);
+            out.write(status + "\n");
+            out.write(captured.toString(CHARSET));
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Evala daemon: request failed: " + e);
+        }
+    }
+
+    /** Runs one request with output captured; returns the exit status the CLI would use. */
+    private static int execute(String request, ByteArrayOutputStream captured) {
+        String[] parts = request == null ? new String[0] : request.split("\t", 3);
+        if (parts.length != 3) {
+            captured.writeBytes("Bad request, expected: command<TAB>working dir<TAB>script\n".getBytes(CHARSET));
+            return 64;
+        }
+        boolean grade, execute;
+        switch (parts[0]) {
+            case "grade" -> { grade = true;  execute = false; }
+            case "run"   -> { grade = true;  execute = true; }
+            case "test"  -> { grade = false; execute = true; }
+            default -> {
+                captured.writeBytes(("Unknown command '" + parts[0] + "', expected grade|run|test\n").getBytes(CHARSET));
+                return 64;
+            }
+        }
+
+        File workDir = new File(parts[1]);
+        Path script = workDir.toPath().resolve(parts[2]);
+        Session session = new Session(workDir);
+        session.script = parts[2];
+        Session.begin(session);
+        ThreadOutput.capture(new PrintStream(captured, true, CHARSET));
+        try {
+            byte[] bytes = Files.readAllBytes(script);
+            Evala.run(new String(bytes, CHARSET), new Interpreter(), grade, execute);
+            if (session.hadError) return 65;
+            if (session.hadRuntimeError) return 70;
+            return 0;
+        } catch (IOException e) {
+            System.err.println("Could not read " + script + ": " + e);
+            return 66;
+        } catch (RuntimeException | StackOverflowError e) {
+            // a broken submission must not take the daemon down
+            System.err.println("Evala internal error: " + e);
+            return 70;
+        } finally {
+            ThreadOutput.release();
+            Session.end();
+        }
+    }
+
+    /**
+     * Installed as System.out/System.err: each thread's output goes to the
+     * stream it registered with capture(), anything else to the real console.
+     */
+    private static final class ThreadOutput extends OutputStream {
+        private static final ThreadLocal<PrintStream> target = new ThreadLocal<>();
+        private final PrintStream console;
+
+        private ThreadOutput(PrintStream console) { this.console = console; }
+
+        static void install() {
+            System.setOut(new PrintStream(new ThreadOutput(System.out), true, CHARSET));
+            System.setErr(new PrintStream(new ThreadOutput(System.err), true, CHARSET));
+        }
+
+        static void capture(PrintStream stream) { target.set(stream); }
+        static void release() { target.remove(); }
+
+        private PrintStream stream() {
+            PrintStream s = target.get();
+            return s != null ? s : console;
+        }
+
+        @Override public void write(int b) { stream().write(b); }
+        @Override public void write(byte[] b, int off, int len) { stream().write(b, off, len); }
+        @Override public void flush() { stream().flush(); }
+    }
+}
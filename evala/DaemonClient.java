@@ -0,0 +1,50 @@
+package evala;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Thin client for the grading daemon (see Daemon). Deliberately touches none
+ * of the interpreter classes so it starts as fast as the JVM allows.
+ *
+ * Usage: java evala.DaemonClient grade|run|test script [socket]
+ */
+public final class DaemonClient {
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("Usage: evala-client grade|run|test script [socket]");
+            System.exit(64);
+        }
+        Path socket = args.length == 3 ? Paths.get(args[2]) : Daemon.defaultSocket();
+        System.exit(send(args[0], args[1], socket));
+    }
+
+    /** Sends one request, prints the daemon's captured output and returns its exit status. */
+    static int send(String command, String script, Path socket) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            Writer out = Channels.newWriter(channel, CHARSET);
+            out.write(command + "\t" + Paths.get("").toAbsolutePath() + "\t" + script + "\n");
+            out.flush();
+            channel.shutdownOutput();
+
+            BufferedReader in = new BufferedReader(Channels.newReader(channel, CHARSET));
+            String status = in.readLine();
+            char[] buf = new char[8192];
+            for (int n; (n = in.read(buf)) != -1; ) System.out.print(new String(buf, 0, n));
+            System.out.flush();
+            return status == null ? 70 : Integer.parseInt(status.trim());
+        } catch (java.net.ConnectException | java.nio.file.NoSuchFileException e) {
+            System.err.println("No Evala daemon listening on " + socket);
+            return 69;
+        }
+    }
+}
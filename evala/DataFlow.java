@@ -0,0 +1,125 @@
+package evala;
+
+import java.util.*;
+
+/** Liveness and definite-assignment over each function's ControlFlowGraph.
+ *
+ * - dead stores: a value assigned to a local that no path reads before it is
+ *   overwritten or the function returns (variables never read at all are
+ *   already reported as unused locals, so they're left out here)
+ * - unreachable code: statements after a return/break
+ * - read before assignment: a `var x;` read on a path that never assigned it
+ *
+ * Both problems are solved iteratively with one BitSet per node.
+ */
+final class DataFlow {
+  final List<String> deadStores = new ArrayList<>();
+  final List<String> unreachable = new ArrayList<>();
+  final List<String> readBeforeAssign = new ArrayList<>();
+
+  static DataFlow analyze(List<Stmt> program) {
+    DataFlow df = new DataFlow();
+    for (ControlFlowGraph g : ControlFlowGraph.buildAll(program)) df.check(g);
+    return df;
+  }
+
+  private void check(ControlFlowGraph g) {
+    for (ControlFlowGraph.Node n : g.unreachableStarts) {
+      unreachable.add(n.where() + " (in " + g.fnName + ")");
+    }
+
+    BitSet[] liveOut = liveness(g);
+    BitSet[] assignedIn = definiteAssignment(g);
+
+    BitSet readSomewhere = new BitSet();
+    for (ControlFlowGraph.Node n : g.nodes) if (n.reachable) readSomewhere.or(n.use);
+
+    for (ControlFlowGraph.Node n : g.nodes) {
+      if (!n.reachable || n.stmt instanceof Stmt.Function) continue;
+
+      BitSet dead = (BitSet) n.assign.clone();
+      dead.andNot(liveOut[n.index]);
+      dead.andNot(g.captured);
+      dead.and(readSomewhere);
+      for (int v = dead.nextSetBit(0); v >= 0; v = dead.nextSetBit(v + 1)) {
+        deadStores.add(n.where() + ": " + g.variables.get(v) + " (in " + g.fnName + ")");
+      }
+
+      BitSet unassigned = (BitSet) n.use.clone();
+      unassigned.andNot(assignedIn[n.index]);
+      unassigned.andNot(g.captured);
+      for (int v = unassigned.nextSetBit(0); v >= 0; v = unassigned.nextSetBit(v + 1)) {
+        readBeforeAssign.add(n.where() + ": " + g.variables.get(v) + " (in " + g.fnName + ")");
+      }
+    }
+  }
+
+  // Backward: live-out(n) = union of live-in(successors); live-in(n) = use(n) + (live-out(n) - def(n))
+  private static BitSet[] liveness(ControlFlowGraph g) {
+    int size = g.nodes.size();
+    BitSet[] in = new BitSet[size];
+    BitSet[] out = new BitSet[size];
+    for (int i = 0; i < size; i++) {
+      in[i] = new BitSet();
+      out[i] = new BitSet();
+    }
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      // nodes are numbered in source order, so visiting them backwards converges quickly
+      for (int i = size - 1; i >= 0; i--) {
+        ControlFlowGraph.Node n = g.nodes.get(i);
+        BitSet o = new BitSet();
+        for (ControlFlowGraph.Node s : n.successors) o.or(in[s.index]);
+        BitSet newIn = (BitSet) o.clone();
+        newIn.andNot(n.def);
+        newIn.or(n.use);
+        out[i] = o;
+        if (!newIn.equals(in[i])) {
+          in[i] = newIn;
+          changed = true;
+        }
+      }
+    }
+    return out;
+  }
+
+  // Forward, must: assigned-in(n) = intersection of assigned-out(reachable predecessors);
+  // assigned-out(n) = (assigned-in(n) - vars declared without a value) + assign(n)
+  private static BitSet[] definiteAssignment(ControlFlowGraph g) {
+    int size = g.nodes.size();
+    int vars = g.variables.size();
+    BitSet all = new BitSet();
+    all.set(0, vars);
+    BitSet[] in = new BitSet[size];
+    BitSet[] out = new BitSet[size];
+    for (int i = 0; i < size; i++) {
+      in[i] = (BitSet) all.clone();
+      out[i] = (BitSet) all.clone();
+    }
+    // On entry only the parameters hold values; locals not declared yet aren't in scope anyway
+    out[g.entry.index] = (BitSet) g.params.clone();
+    in[g.entry.index] = new BitSet();
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (ControlFlowGraph.Node n : g.nodes) {
+        if (n == g.entry || !n.reachable) continue;
+        BitSet i = (BitSet) all.clone();
+        for (ControlFlowGraph.Node p : n.predecessors) if (p.reachable) i.and(out[p.index]);
+        BitSet o = (BitSet) i.clone();
+        BitSet declaredEmpty = (BitSet) n.def.clone();
+        declaredEmpty.andNot(n.assign);
+        o.andNot(declaredEmpty);
+        o.or(n.assign);
+        in[n.index] = i;
+        if (!o.equals(out[n.index])) {
+          out[n.index] = o;
+          changed = true;
+        }
+      }
+    }
+    return in;
+  }
+}
@@ -6,34 +6,100 @@ import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 public class Evala {
-    private static final Interpreter interpreter = new Interpreter();
-    
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    // created on first use so the daemon and client paths never build it
+    private static Interpreter interpreter;
+
+    // command line options
+    static boolean guidedTests = false;     // --guided-tests: keep only generated tests that add coverage
+    static boolean memoize = false;         // --memoize: cache results of pure functions
+    static boolean runOnly = false;         // --run-only: skip grading and test generation
+    static boolean useCache = true;         // --no-cache: re-analyze every function
+    static boolean jsonReport = false;      // --json: also write CodeReview/GradedCode.json
+    static String summaryFile = null;       // --summary file: append one CSV/JSONL row per graded program
+    static String traceFile = null;         // --trace file: record execution into a binary trace
+    static boolean timings = false;         // --timings: print time and allocation per phase
+    static String timingsFile = null;       // --timings-json file: also write them as JSON
+    private static final int MEMO_CAPACITY = 10_000;
 
   
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: evala [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        List<String> files = new ArrayList<>();
+        boolean daemon = false;
+        boolean watch = false;
+        boolean batch = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--guided-tests" -> guidedTests = true;
+                case "--memoize" -> memoize = true;
+                case "--run-only" -> runOnly = true;
+                case "--no-cache" -> useCache = false;
+                case "--daemon" -> daemon = true;
+                case "--watch" -> watch = true;
+                case "--batch" -> batch = true;
+                case "--json" -> jsonReport = true;
+                case "--summary" -> {
+                    if (i + 1 == args.length) usage();
+                    summaryFile = args[++i];
+                }
+                case "--trace" -> {
+                    if (i + 1 == args.length) usage();
+                    traceFile = args[++i];
+                }
+                case "--timings" -> timings = true;
+                case "--timings-json" -> {
+                    if (i + 1 == args.length) usage();
+                    timings = true;
+                    timingsFile = args[++i];
+                }
+                default -> {
+                    if (arg.startsWith("--")) usage();
+                    files.add(arg);
+                }
+            }
+        }
+
+        if (daemon) {
+            // evala --daemon [socket]
+            if (files.size() > 1) usage();
+            Daemon.serve(files.isEmpty() ? Daemon.defaultSocket() : Paths.get(files.get(0)));
+        } else if (batch) {
+            if (files.isEmpty()) usage();
+            Batch.grade(files);
+        } else if (watch) {
+            if (files.size() != 1) usage();
+            new Watcher(Paths.get(files.get(0))).watch();
+        } else if (files.size() > 1) {
+            usage();
+        } else if (files.size() == 1) {
+            runFile(files.get(0));
         } else {
             runPrompt();
         }
         }
 
+    private static void usage() {
+        System.out.println("Usage: evala [--guided-tests] [--memoize] [--run-only] [--no-cache] [--json] [--summary file] [--trace file] [--timings] [--timings-json file] [script]");
+        System.out.println("       evala [--guided-tests] --watch script");
+        System.out.println("       evala [--guided-tests] [--json] [--summary file] --batch file|directory...");
+        System.out.println("       evala [--guided-tests] [--memoize] --daemon [socket]");
+        System.exit(64);
+    }
+
     
 
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
+        Session.current().script = path;
         run(new String(bytes, Charset.defaultCharset()));
-        if (hadError) { System.exit(65); }
-        if (hadRuntimeError) { System.exit(70); }
+        if (Session.current().hadError) { System.exit(65); }
+        if (Session.current().hadRuntimeError) { System.exit(70); }
     }
 
     private static void runPrompt() throws IOException {
@@ -48,36 +114,128 @@ public class Evala {
                 break;
             }
             run(line);
-            hadError = false;
+            Session.current().hadError = false;
         }
     }
 
     private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        if (interpreter == null) interpreter = new Interpreter();
+        run(source, interpreter, !runOnly, true);
+    }
 
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+    /**
+     * Runs one program through the pipeline. grade = static grading and test
+     * file generation, execute = interpret the program. The daemon calls this
+     * with a fresh interpreter per request.
+     */
+    static void run(String source, Interpreter interpreter, boolean grade, boolean execute) {
+        Session session = Session.current();
+        if (timings) session.timings = new Timings();
+        try {
+            run(source, interpreter, grade, execute, session);
+        } finally {
+            if (session.timings != null) {
+                session.timings.print(System.out);
+                if (timingsFile != null) session.timings.writeJson(sessionFile(timingsFile));
+                session.timings = null;
+            }
+        }
+    }
+
+    private static void run(String source, Interpreter interpreter, boolean grade, boolean execute, Session session) {
+        Metrics.PIPELINE.programs.increment();
+        long time = startPhase();
+        ParallelScanner scanner = new ParallelScanner(source);
+        TokenBuffer tokens = scanner.scanTokens();
+        time = endPhase(Phase.SCAN, time);
+
+        List<Stmt> statements = new ParallelParser(tokens).parse();
+        endPhase(Phase.PARSE, time);
+        if (session.timings != null) {
+            session.timings.tokens = tokens.size() - 1;     // not counting EOF
+            session.timings.count(statements);
+        }
         // Stop if there was a syntax error.
-        if (hadError) return;
+        if (session.hadError) return;
+
+        // grading lives in its own method so its classes only load when it is used
+        if (grade) grade(scanner.getCommentStats(), statements, null);
+
+        if (execute) {
+            if (memoize) {
+                interpreter.enableMemoization(new PurityAnalyzer().pureFunctions(statements), MEMO_CAPACITY);
+            }
+            if (traceFile != null) interpreter.trace = new Trace(Trace.DEFAULT_CAPACITY);
+            time = startPhase();
+            try {
+                interpreter.interpret(statements);
+            } finally {
+                endPhase(Phase.EXECUTE, time);
+                // also on a crash such as a stack overflow, which is when the trace matters most
+                if (interpreter.trace != null) {
+                    interpreter.trace.dump(sessionFile(traceFile));
+                    interpreter.trace = null;
+                }
+            }
+        }
+    }
+
+    /** The start time of a phase about to begin. */
+    static long startPhase() {
+        Session session = Session.current();
+        if (session.timings != null) session.timings.mark();
+        session.phase = Events.beginPhase();
+        return System.nanoTime();
+    }
+
+    /** Record a phase that began at start (Pipeline MXBean, --timings, JFR); returns now, to start the next one from. */
+    static long endPhase(Phase phase, long start) {
+        long now = System.nanoTime();
+        Metrics.PIPELINE.add(phase, now - start);
+        Session session = Session.current();
+        if (session.timings != null) session.timings.add(phase, now - start);
+        Events.endPhase(session.phase, phase, session.script);
+        session.phase = Events.beginPhase();
+        return now;
+    }
+
+    /** name, resolved against the session's working directory unless absolute. */
+    static java.io.File sessionFile(String name) {
+        java.io.File file = new java.io.File(name);
+        return file.isAbsolute() ? file : new java.io.File(Session.current().workDir, name);
+    }
+
+    /** Grade the program and write test files for testTargets (null = every top-level function). */
+    static void grade(Scanner.CommentStats comments, List<Stmt> statements, Set<Stmt.Function> testTargets) {
 
         // Print the AST.
         //System.out.println("Parsed expression: " + expression.toString());
         // >>> grading: walk AST to collect usage (reads/writes/params) + structural checks
+        long time = startPhase();
         UsageCollector usage = new UsageCollector();           // NEW (see class below)
+        usage.setGuidedTests(guidedTests);
+        usage.setTestTargets(testTargets);
+        FunctionCache cache = useCache ? FunctionCache.load(Session.current().reviewDir()) : null;
+        usage.setCache(cache);
         usage.walk(statements);
+        if (cache != null) cache.save();
+        time = endPhase(Phase.ANALYZE, time);
 
-        Grader grader = new Grader(scanner.getCommentStats(),  // NEW (see class below)
+        Grader grader = new Grader(comments,  // NEW (see class below)
                                 usage.getUsage(),
                                 usage.getIfWithoutElse(),
                                 usage.getIfTotal(),
-                                usage.getMagicNumbers());
+                                usage.getMagicNumbers(),
+                                statements);
         GradeReport report = grader.grade();
+        Session.current().report = report;
+        time = endPhase(Phase.GRADE, time);
         report.writeToFile("GradedCode");                            // writes ./grade
+        if (jsonReport) report.writeJson("GradedCode");
+        if (summaryFile != null) report.appendSummary(sessionFile(summaryFile));
+        endPhase(Phase.REPORT, time);
         System.out.println(report.summaryLine());
         // <<< grading
-
-        interpreter.interpret(statements);
     }
 
     static void error(int line, String message) {
@@ -87,7 +245,7 @@ public class Evala {
     private static void report(int line, String where, String message) {
         System.err.println(
                 "[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
+        Session.current().hadError = true;
     }
 
     static void error(Token token, String message) {
@@ -99,7 +257,9 @@ public class Evala {
     }
 
     static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[Line " + error.token.line + "]");
-        hadRuntimeError = true;
+        // natives such as TestCases report errors without a token
+        int line = error.token == null ? -1 : error.token.line;
+        System.err.println(error.getMessage() + "\n[Line " + line + "]");
+        Session.current().hadRuntimeError = true;
     }
 }
\ No newline at end of file
@@ -1,32 +1,77 @@
 package evala;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 class EvalaFunction implements EvalaCallable {
     private final Stmt.Function declaration;
     private final Environment closure;
+    // argument tuple -> result, only for functions PurityAnalyzer proved pure
+    private final Map<List<Object>, Object> memo;
 
     EvalaFunction(Stmt.Function declaration, Environment closure) {
         this.closure = closure;
         this.declaration = declaration;
+        this.memo = null;
+    }
+
+    /** Memoizing function: keeps the results of the most recent memoCapacity argument tuples. */
+    EvalaFunction(Stmt.Function declaration, Environment closure, int memoCapacity) {
+        this.closure = closure;
+        this.declaration = declaration;
+        this.memo = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+                return size() > memoCapacity;
+            }
+        };
     }
     
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        // coverage wants to see every execution, so bypass the cache while it is recording
+        if (memo == null || interpreter.coverage != null) return invoke(interpreter, arguments);
+
+        List<Object> key = new ArrayList<>(arguments);
+        if (memo.containsKey(key)) return memo.get(key);
+        Object result = invoke(interpreter, arguments);
+        memo.put(key, result);
+        return result;
+    }
+
+    private Object invoke(Interpreter interpreter, List<Object> arguments) {
         Environment environment = new Environment(closure);
         for (int i = 0; i < declaration.params.size(); i++) {
             environment.define(declaration.params.get(i).lexeme, arguments.get(i));
         }
         
+        Metrics.Local counts = interpreter.counts;
+        counts.calls++;
+        counts.environments++;
+        if (++counts.depth > counts.maxDepth) counts.maxDepth = counts.depth;
+        Events.CallEvent event = Events.beginCall(counts.calls);
+
+        Trace trace = interpreter.trace;
+        if (trace != null) trace.call(declaration);
         try {
             interpreter.executeBlock(declaration.body, environment);
         } catch (Return returnValue) {
             return returnValue.value;
+        } finally {
+            if (event != null) Events.endCall(event, declaration, counts.depth);
+            counts.depth--;
+            if (trace != null) trace.ret(declaration);
         }
 
         return null;
     }
 
+    Stmt.Function declaration() {
+        return declaration;
+    }
+
     @Override
     public int arity() {
         return declaration.params.size();
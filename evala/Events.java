@@ -0,0 +1,130 @@
+package evala;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Java Flight Recorder events, to line up what Evala is doing with GC and
+ * JIT activity in the same recording:
+ *   evala.Phase         one per Phase of Evala.run
+ *   evala.TestCase      one per TestCase run by runTests()
+ *   evala.FunctionCall  every CALL_SAMPLE-th call of an Evala function; off
+ *                       unless enabled in the recording's settings
+ *
+ * Until Flight Recorder has been started (-XX:StartFlightRecording, or
+ * jcmd JFR.start on a running daemon) the begin methods return null without
+ * loading the event classes, whose first use costs a few hundred ms of
+ * startup. After that, events the recording doesn't ask for are begun and
+ * dropped without their fields being filled in. The call sample is a mask
+ * test on a counter the interpreter keeps anyway.
+ */
+final class Events {
+    static final long CALL_SAMPLE = 1024;     // a power of two
+
+    private Events() {}
+
+    @Name("evala.Phase")
+    @Label("Pipeline Phase")
+    @Category("Evala")
+    @Description("One stage of Evala.run: scan, parse, analyze, grade, write report or execute")
+    @StackTrace(false)
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Script")
+        String script;
+    }
+
+    @Name("evala.TestCase")
+    @Label("Test Case")
+    @Category("Evala")
+    @Description("A TestCase executed by runTests()")
+    @StackTrace(false)
+    static final class TestCaseEvent extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Arguments")
+        String arguments;
+
+        @Label("Outcome")
+        @Description("pass, fail or error")
+        String outcome;
+    }
+
+    @Name("evala.FunctionCall")
+    @Label("Function Call")
+    @Category("Evala")
+    @Description("A sampled call of an Evala function")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class CallEvent extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        int line;
+
+        @Label("Call Depth")
+        int depth;
+    }
+
+    static PhaseEvent beginPhase() {
+        if (!FlightRecorder.isInitialized()) return null;
+        PhaseEvent event = new PhaseEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endPhase(PhaseEvent event, Phase phase, String script) {
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase.name().toLowerCase();
+            event.script = script;
+            event.commit();
+        }
+    }
+
+    static TestCaseEvent beginTest() {
+        if (!FlightRecorder.isInitialized()) return null;
+        TestCaseEvent event = new TestCaseEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endTest(TestCaseEvent event, TestCase tc, String outcome) {
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.function = tc.functionName;
+            event.arguments = String.valueOf(tc.args);
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    /** A CallEvent for the calls-th call, begun now, or null if this call isn't sampled. */
+    static CallEvent beginCall(long calls) {
+        if ((calls & (CALL_SAMPLE - 1)) != 0 || !FlightRecorder.isInitialized()) return null;
+        CallEvent event = new CallEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endCall(CallEvent event, Stmt.Function fn, int depth) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.function = fn.name == null ? "<anonymous>" : fn.name.lexeme;
+            event.line = fn.name == null ? -1 : fn.name.line;
+            event.depth = depth;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package evala;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+/** Persistent per-function analysis cache (CodeReview/.evala-cache).
+ * For every top-level function it remembers the structural hash of the
+ * declaration and everything UsageCollector derived from its body: FnUsage
+ * entries, its variables and the unread ones, the globals it reads, if counts, magic numbers and the generated tests.
+ * Functions whose hash is unchanged are neither re-analyzed nor re-written.
+ */
+final class FunctionCache {
+  private static final String FILE_NAME = ".evala-cache";
+  private static final String HEADER = "evala-cache\t2";
+
+  static final class Entry {
+    final long hash;
+    final List<UsageCollector.FnUsage> functions = new ArrayList<>();
+    final Set<String> reads = new HashSet<>();      // names it reads from the global scope
+    int variables = 0;
+    final List<String> unusedLocals = new ArrayList<>();
+    int ifTotal = 0;
+    int ifWithoutElse = 0;
+    final List<UsageCollector.MagicNumber> magicNumbers = new ArrayList<>();
+    List<TestCase> tests = null;    // null = no test file was generated for it
+
+    Entry(long hash) { this.hash = hash; }
+  }
+
+  private final File file;
+  private final Map<String, Entry> previous;
+  private final Map<String, Entry> current = new LinkedHashMap<>();
+
+  private FunctionCache(File file, Map<String, Entry> previous) {
+    this.file = file;
+    this.previous = previous;
+  }
+
+  /** Entry recorded for fnName by an earlier run, if its hash still matches. */
+  Entry lookup(String fnName, long hash) {
+    Entry e = previous.get(fnName);
+    return e != null && e.hash == hash ? e : null;
+  }
+
+  /** Record the entry to keep for this run (entries not put are dropped on save). */
+  void put(String fnName, Entry entry) {
+    current.put(fnName, entry);
+  }
+
+  static FunctionCache load(File dir) {
+    File file = new File(dir, FILE_NAME);
+    Map<String, Entry> entries = new HashMap<>();
+    if (file.exists()) {
+      try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+        if (HEADER.equals(in.readLine())) readEntries(in, entries);
+      } catch (IOException | RuntimeException e) {
+        entries.clear();    // unreadable cache: start over
+      }
+    }
+    return new FunctionCache(file, entries);
+  }
+
+  void save() {
+    try (PrintWriter out = new PrintWriter(file)) {
+      out.println(HEADER);
+      for (Map.Entry<String, Entry> me : current.entrySet()) {
+        Entry e = me.getValue();
+        out.println("fn\t" + me.getKey() + "\t" + Long.toHexString(e.hash));
+        for (UsageCollector.FnUsage fu : e.functions) {
+          out.println("usage\t" + fu.fnName + "\t" + String.join(",", fu.params)
+              + "\t" + String.join(",", fu.paramsRead));
+        }
+        out.println("reads\t" + String.join(",", e.reads));
+        out.println("locals\t" + e.variables + "\t" + String.join(",", e.unusedLocals));
+        out.println("ifs\t" + e.ifTotal + "\t" + e.ifWithoutElse);
+        for (UsageCollector.MagicNumber m : e.magicNumbers) out.println("magic\t" + m.lexeme + "\t" + m.line);
+        if (e.tests != null) {
+          out.println("tests");
+          for (TestCase tc : e.tests) {
+            StringBuilder sb = new StringBuilder("test\t").append(tc.functionName).append('\t').append(tc.index);
+            for (Object a : tc.args) sb.append('\t').append(encode(a));
+            sb.append('\t').append(encode(tc.expected));
+            out.println(sb);
+          }
+        }
+        out.println("end");
+      }
+    } catch (IOException e) {
+      System.err.println("Failed to write analysis cache: " + e);
+    }
+  }
+
+  private static void readEntries(BufferedReader in, Map<String, Entry> entries) throws IOException {
+    String name = null;
+    Entry e = null;
+    for (String line; (line = in.readLine()) != null; ) {
+      String[] f = line.split("\t", -1);
+      switch (f[0]) {
+        case "fn" -> { name = f[1]; e = new Entry(Long.parseUnsignedLong(f[2], 16)); }
+        case "usage" -> {
+          UsageCollector.FnUsage fu = new UsageCollector.FnUsage(f[1]);
+          fu.params.addAll(names(f[2]));
+          fu.paramsRead.addAll(names(f[3]));
+          e.functions.add(fu);
+        }
+        case "reads" -> e.reads.addAll(names(f[1]));
+        case "locals" -> { e.variables = Integer.parseInt(f[1]); e.unusedLocals.addAll(names(f[2])); }
+        case "ifs" -> { e.ifTotal = Integer.parseInt(f[1]); e.ifWithoutElse = Integer.parseInt(f[2]); }
+        case "magic" -> e.magicNumbers.add(new UsageCollector.MagicNumber(f[1], Integer.parseInt(f[2])));
+        case "tests" -> e.tests = new ArrayList<>();
+        case "test" -> {
+          Object[] argsAndExpected = new Object[f.length - 3];
+          for (int i = 3; i < f.length; i++) argsAndExpected[i - 3] = decode(f[i]);
+          e.tests.add(new TestCase(f[1], Integer.parseInt(f[2]), argsAndExpected));
+        }
+        case "end" -> { entries.put(name, e); e = null; }
+        default -> throw new IOException("Bad cache line: " + line);
+      }
+    }
+  }
+
+  private static List<String> names(String joined) {
+    return joined.isEmpty() ? List.of() : Arrays.asList(joined.split(","));
+  }
+
+  // Test values: nil, booleans, Integers (generated), Doubles and Strings
+  private static String encode(Object v) {
+    if (v == null) return "nil";
+    if (v instanceof Boolean) return "b:" + v;
+    if (v instanceof Integer) return "i:" + v;
+    if (v instanceof Double) return "d:" + v;
+    String s = v.toString();
+    return "s:" + s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+  }
+
+  private static Object decode(String s) {
+    if (s.equals("nil")) return null;
+    String body = s.substring(2);
+    switch (s.charAt(0)) {
+      case 'b': return Boolean.parseBoolean(body);
+      case 'i': return Integer.parseInt(body);
+      case 'd': return Double.parseDouble(body);
+      default:
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < body.length(); i++) {
+          char c = body.charAt(i);
+          if (c == '\\' && i + 1 < body.length()) {
+            char n = body.charAt(++i);
+            sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n);
+          } else {
+            sb.append(c);
+          }
+        }
+        return sb.toString();
+    }
+  }
+}
@@ -1,135 +1,71 @@
 package evala;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.text.DecimalFormat;
 import java.util.*;
 
+/** GradedCode.md assembled from the sections the grading rules produced,
+ * plus the same data as JSON (one file per submission) or as one appended
+ * CSV/JSONL row per submission for aggregating a batch.
+ */
 public final class GradeReport {
+  private static final Object SUMMARY_LOCK = new Object();   // daemon requests append concurrently
 
-  public static final class Magic {
-    public final String lexeme;
-    public final int line;
-    public Magic(String lexeme, int line) { this.lexeme = lexeme; this.line = line; }
+  private final List<String> ruleIds;
+  private final List<GradingRule.Section> sections;
+
+  public GradeReport(List<String> ruleIds, List<GradingRule.Section> sections) {
+    this.ruleIds = List.copyOf(ruleIds);
+    this.sections = List.copyOf(sections);
   }
-  public static final class UnusedParam {
-    public final String functionName;
-    public final String paramName;
-    public UnusedParam(String fn, String p) { this.functionName = fn; this.paramName = p; }
+
+  public List<String> ruleIds() { return ruleIds; }
+  public List<GradingRule.Section> sections() { return sections; }
+
+  public double total() {
+    double total = 0;
+    for (GradingRule.Section s : sections) total += s.score;
+    return total;
   }
-  public static final class CommentAnalysis {
-    public final int commentLines, codeLines, totalLines;
-    public final double ratio;
-    public final String verdict;
-    public CommentAnalysis(int cl, int code, int tot, double r, String v) {
-      this.commentLines = cl; this.codeLines = code; this.totalLines = tot;
-      this.ratio = r; this.verdict = v;
-    }
+
+  public double maxTotal() {
+    double max = 0;
+    for (GradingRule.Section s : sections) max += s.weight;
+    return max;
   }
 
-  private final int ifWithoutElse;
-  private final List<Magic> magicNumbers;
-  private final Set<String> unusedLocals;
-  private final List<UnusedParam> unusedParams;
-  private final CommentAnalysis comments;
-  private final double gradeLocals;
-  private final double gradeParams;
-  private final int ifTotal;
-
-  public GradeReport(int ifWithoutElse,
-                     List<Magic> magicNumbers,
-                     Set<String> unusedLocals,
-                     List<UnusedParam> unusedParams,
-                     CommentAnalysis comments, double gradeLocals, double gradeParams,int ifTotal) {
-        this.ifWithoutElse = ifWithoutElse;
-        this.magicNumbers = magicNumbers;
-        this.unusedLocals = unusedLocals;
-        this.unusedParams = unusedParams;
-        this.comments = comments;
-        this.gradeLocals = gradeLocals;
-        this.gradeParams = gradeParams;
-        this.ifTotal = ifTotal;
-    }
     /**This is the formatted printer for the grade! */
   public String summaryLine() {
-    // return String.format(
-    //   "Grade: if-no-else=%d, magic=%d, unused-locals=%d, unused-params=%d, comments=%.1f%% (%s)",
-    //   ifWithoutElse, magicNumbers.size(), unusedLocals.size(), unusedParams.size(),
-    //   comments.ratio * 100.0, comments.verdict);
     //return "Grade written to CodeReview/GradedCode.md, Total Grade: ";
     return "";
   }
   /**Write to a file w/ the grades given */
   public void writeToFile(String filename) {
-        String dirPath = "CodeReview";
-        java.io.File dir = new java.io.File(dirPath);
-
         // Create directory if missing
-        if (!dir.exists()) dir.mkdirs();
+        java.io.File dir = Session.current().reviewDir();
 
         // Build full path
-        String fullPath = dirPath + "/" + filename+".md";
+        java.io.File fullPath = new java.io.File(dir, filename+".md");
     try (PrintWriter out = new PrintWriter(fullPath)) {
       out.println("# Evala static grading\n");
 
-     // System.out.println("if total "+ (ifTotal - ifWithoutElse));
-      int ifCalc=0;
-      // if( (ifTotal - ifWithoutElse) / ifTotal == 0){
-      //   ifCalc = 20.0;
-      // }else{
-      //   ifCalc= ifTotal- ifWithoutElse;
-      // }
-      // TODO: fix 
-      double gradeIfs =0;
-      if(ifTotal == 0){
-        gradeIfs = 20;
-      }else{
-       gradeIfs = 20.0 *  (ifTotal - ifWithoutElse) / ifTotal;
+      for (GradingRule.Section s : sections) {
+        if (s.weight > 0) out.println("// " + s.score + "/" + s.weight);
+        for (String line : s.lines) out.println(line);
+        out.println();
       }
-       // Math.max( 20.0 -ifCalc,0);
-      out.println("// "+gradeIfs+"/20.0");
-      out.printf("If without else: %d%n%n", ifWithoutElse);
-
-      double magicGrade= Math.max( 20.0 - magicNumbers.size(),0);
-      out.println("// "+magicGrade+"/20.0");
 
-      out.printf("Magic numbers: %d%n", magicNumbers.size());
-      for (var m : magicNumbers) {
-        if (m.line >= 0) out.printf("  line %d: %s%n", m.line, m.lexeme);
-        else out.printf("  %s%n", m.lexeme);
-      }
-      out.println();
-      out.println("// "+ gradeLocals+"/20.0");
-      out.printf("Unused locals: %d%n", unusedLocals.size());
-      for (String n : unusedLocals) out.printf("  %s%n", n);
-      out.println();
-
-
-      out.println("// "+gradeParams+"/20.0");
-      out.printf("Unused parameters: %d%n", unusedParams.size());
-      for (var up : unusedParams) out.printf("  function %s: %s%n", up.functionName, up.paramName);
-      out.println();
-
-      double commentGrade = Math.max(0, (20 - Math.abs(50 - (comments.ratio *100.0))));
       DecimalFormat df  = new DecimalFormat("#.##");
-      String formatted = df.format(commentGrade);
-      // System.out.println("[DEBUG report] gradeLocals = " + gradeLocals);
-      // System.out.println("[DEBUG report] gradeParams = " + gradeParams);
-      // System.out.println("[DEBUG report] ifTotal = " + ifTotal + ", ifWithoutElse = " + ifWithoutElse);
-
-      out.println("// "+ formatted+"/20.0");
-      out.println("Comment density:");
-      out.printf("  total lines: %d%n", comments.totalLines);
-      out.printf("  code lines:  %d%n", comments.codeLines);
-      out.printf("  comment lines: %d%n", comments.commentLines);
-      out.printf("  ratio: %.1f%%%n", comments.ratio * 100.0);
-      out.printf("  verdict: %s%n", comments.verdict);
-      double finalGrade = gradeIfs+gradeLocals+gradeParams+magicGrade+commentGrade;
-      
-      //System.out.print("fg: "+finalGrade);
-      String endGrade = df.format(finalGrade);
-      out.println("\n # Total Grade: "+endGrade+"/100.0");
+      String endGrade = df.format(total());
+      String maxGrade = String.valueOf(maxTotal());
+      out.println(" # Total Grade: "+endGrade+"/"+maxGrade);
      
-      System.out.println("Grade written to: CodeReview/GradedCode.md \nTotal Grade: "+endGrade+"/100.0");
+      System.out.println("Grade written to: CodeReview/GradedCode.md \nTotal Grade: "+endGrade+"/"+maxGrade);
        System.out.println("\n-------------------------");
       System.out.println("Code Execution output ...");
       
@@ -138,4 +74,101 @@ public final class GradeReport {
       System.err.println("Failed to write grade file: " + e);
     }
   }
+
+  /** Write CodeReview/<filename>.json with every section's score and findings. */
+  public void writeJson(String filename) {
+    File fullPath = new File(Session.current().reviewDir(), filename + ".json");
+    try (Writer out = new BufferedWriter(new FileWriter(fullPath))) {
+      writeJson(new JsonWriter(out));
+      out.write('\n');
+    } catch (IOException e) {
+      System.err.println("Failed to write JSON grade file: " + e);
+    }
+  }
+
+  /**
+   * Append this report to a summary file: one JSON object per line if the name ends
+   * in .jsonl, otherwise a CSV row (file, total, max, one score column per rule),
+   * with a header when the file is new. Nothing is read back, so batches of any
+   * size use constant memory.
+   */
+  public void appendSummary(File file) {
+    synchronized (SUMMARY_LOCK) {
+      boolean fresh = !file.exists() || file.length() == 0;
+      try (Writer out = new BufferedWriter(new FileWriter(file, true))) {
+        if (file.getName().endsWith(".jsonl")) {
+          writeJson(new JsonWriter(out));
+        } else {
+          if (fresh) {
+            out.write("file,total,max");
+            for (String id : ruleIds) out.write("," + id);
+            out.write('\n');
+          }
+          out.write(csv(Session.current().script) + "," + total() + "," + maxTotal());
+          for (GradingRule.Section s : sections) out.write("," + s.score);
+        }
+        out.write('\n');
+      } catch (IOException e) {
+        System.err.println("Failed to append to " + file + ": " + e);
+      }
+    }
+  }
+
+  private void writeJson(JsonWriter json) throws IOException {
+    json.beginObject()
+        .name("file").value(Session.current().script)
+        .name("total").value(total())
+        .name("max").value(maxTotal())
+        .name("sections").beginArray();
+    for (int i = 0; i < sections.size(); i++) {
+      GradingRule.Section s = sections.get(i);
+      json.beginObject()
+          .name("rule").value(ruleIds.get(i))
+          .name("score").value(s.score)
+          .name("weight").value(s.weight)
+          .name("heading").value(s.heading())
+          .name("findings").beginArray();
+      for (String d : s.details()) json.value(d);
+      json.endArray().endObject();
+    }
+    json.endArray().endObject();
+  }
+
+  private static String csv(String field) {
+    if (field == null) return "";
+    if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0) return field;
+    return '"' + field.replace("\"", "\"\"") + '"';
+  }
+
+  /**Add an extra section (e.g. test coverage) to a report that was already written, just above its total.
+   * A section with the same title from an earlier run is replaced. */
+  public static void addSection(String filename, String title, List<String> lines) {
+    java.io.File fullPath = new java.io.File(Session.current().reviewDir(), filename + ".md");
+    String heading = "## " + title;
+    try {
+      List<String> report = fullPath.exists()
+          ? new ArrayList<>(java.nio.file.Files.readAllLines(fullPath.toPath()))
+          : new ArrayList<>();
+      int at = report.indexOf(heading);
+      if (at >= 0) {
+        int end = at + 1;
+        while (end < report.size() && !report.get(end).startsWith("## ")
+            && !report.get(end).startsWith(" # Total Grade:")) end++;
+        report.subList(at, end).clear();
+      } else {
+        at = report.size();
+        for (int i = report.size() - 1; i >= 0; i--) {
+          if (report.get(i).startsWith(" # Total Grade:")) { at = i; break; }
+        }
+      }
+      List<String> section = new ArrayList<>();
+      section.add(heading);
+      for (String line : lines) section.add("  " + line);
+      section.add("");
+      report.addAll(at, section);
+      java.nio.file.Files.write(fullPath.toPath(), report);
+    } catch (Exception e) {
+      System.err.println("Failed to add to grade file: " + e);
+    }
+  }
 }
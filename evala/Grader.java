@@ -1,103 +1,85 @@
 package evala;
 
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 
+/** Runs the grading rules over the analysis results and assembles the report.
+ * Rules are independent, so each one is evaluated on its own task; the report
+ * keeps the rules' order. Weights come from the session (--batch loads them
+ * once for all submissions) or else from evala-grading.properties in the
+ * session's working directory, one "rule-id = points" per line; a weight of 0 keeps the
+ * rule's section in the report without scoring it, and "off" leaves it out.
+ */
 public final class Grader {
-  private final Scanner.CommentStats comments;
-  private final UsageCollector.Usage usage;
-  private final int ifWithoutElse;
-  private final List<UsageCollector.MagicNumber> numericLiterals;
-  public double gradeLocals;
-  public double gradeParams; 
-  public int ifTotal;
+  static final String CONFIG_FILE = "evala-grading.properties";
 
-  
-  //variables for calculating grade: 
-
-
-
-  private static final Set<String> MAGIC_WHITELIST = Set.of("-1.0","0.0","1.0");
+  private final GradingRule.Context context;
 
   public Grader(Scanner.CommentStats comments,
                 UsageCollector.Usage usage,
                 int ifWithoutElse,
                 int ifTotal,
-                List<UsageCollector.MagicNumber> numericLiterals) {
-    this.comments = comments;
-    this.usage = usage;
-    this.ifWithoutElse = ifWithoutElse;
-    this.ifTotal = ifTotal;
-    this.numericLiterals = numericLiterals;
+                List<UsageCollector.MagicNumber> numericLiterals,
+                List<Stmt> program) {
+    this.context = new GradingRule.Context(comments, usage, ifTotal, ifWithoutElse, numericLiterals, program);
   }
 
   public GradeReport grade() {
-    
-    // Unused locals: writes - reads
-    Set<String> unusedLocals = new HashSet<>(usage.writes);
-    unusedLocals.removeAll(usage.reads);
-    // System.out.println("Number of locals: "+usage.writes.size());
-    // System.out.println("Number of unused locals "+unusedLocals.size());
-    //20.0 *  (ifTotal - ifWithoutElse) / ifTotal;
-    if (usage.writes.size() == 0) {
-      // no locals: either give full credit or zero; I’m assuming full
-      gradeLocals = 20.0;
-    } else {
-      gradeLocals =20* (usage.writes.size() - unusedLocals.size())/usage.writes.size();//Math.min (20 -(usage.writes.size() - unusedLocals.size()), 20); // not sure if the min is needed 
+    Session session = Session.current();
+    Properties weights = session.weights != null ? session.weights : loadWeights(session.workDir);
 
-    }
+    List<GradingRule> rules = new ArrayList<>(GradingRules.builtins());
+    for (GradingRule plugin : ServiceLoader.load(GradingRule.class)) rules.add(plugin);
 
-    //System.out.println("local Grade: "+gradeLocals); 
-    
-
-    // Unused params per function
-    List<GradeReport.UnusedParam> unusedParams = new ArrayList<>();
-    int funParamCount=0;
-    for (var fn : usage.functions) {
-      Set<String> diff = new HashSet<>(fn.params);
-      funParamCount=  funParamCount + fn.params.size();
-      
-      diff.removeAll(fn.paramsRead);
-      for (String p : diff) {
-        unusedParams.add(new GradeReport.UnusedParam(fn.fnName, p));
-      }
-    }
-    // System.out.println("Number of fun params: "+ funParamCount);
-    // System.out.println("Number of unsed "+unusedParams.size());
-    //int usedParamCount = funParamCount - unusedParams.size();
-    if (funParamCount == 0) {
-      gradeParams = 20.0;
-    } else {
-      gradeParams = 20 * (funParamCount - unusedParams.size())/funParamCount; // Math.min(20 - (funParamCount- unusedParams.size()), 20); 
+    List<String> ids = new ArrayList<>();
+    List<CompletableFuture<GradingRule.Section>> pending = new ArrayList<>();
+    for (GradingRule rule : rules) {
+      if ("off".equals(weights.getProperty(rule.id(), "").trim())) continue;
+      double weight = weight(weights, rule);
+      ids.add(rule.id());
+      pending.add(CompletableFuture.supplyAsync(() -> evaluate(rule, weight)));
     }
-    //gradeParams = 20 * (funParamCount - unusedParams.size())/funParamCount; // Math.min(20 - (funParamCount- unusedParams.size()), 20); 
-   // System.out.println("Param Grade: "+gradeParams); 
-    
 
-    // Magic numbers: numeric literals not in whitelist and not obvious constants
-    // Heuristic: ignore literals that are sole initializer of an ALL_CAPS variable (handled in UsageCollector?).
-    // Here we simply filter by text whitelist.
-    List<GradeReport.Magic> magic = numericLiterals.stream()
-      .filter(m -> !MAGIC_WHITELIST.contains(m.lexeme))
-      .map(m -> new GradeReport.Magic(m.lexeme, m.line))
-      .collect(Collectors.toList());
+    List<GradingRule.Section> sections = new ArrayList<>();
+    for (CompletableFuture<GradingRule.Section> f : pending) sections.add(f.join());
+    return new GradeReport(ids, sections);
+  }
 
-    // Comment density verdict
-    int commentLines = comments.singleLine + comments.blockLines;
-    int total = Math.max(comments.totalLines, 1);
-    double ratio = (double) commentLines / total;
-    String verdict =
-        (total >= 20 && ratio < 0.05) ? "Too few comments"
-      : (ratio > 0.35)               ? "Too many comments"
-                                     : "Good";
-    
+  // A broken plugin costs its own points, not the whole report
+  private GradingRule.Section evaluate(GradingRule rule, double weight) {
+    try {
+      return rule.evaluate(context, weight);
+    } catch (RuntimeException e) {
+      return new GradingRule.Section(0, weight, List.of("Rule " + rule.id() + " failed: " + e));
+    }
+  }
 
-    var commentAnalysis = new GradeReport.CommentAnalysis(
-      commentLines, comments.codeLines, comments.totalLines, ratio, verdict);
-    // System.out.println("[DEBUG] gradeLocals = " + gradeLocals);
-    // System.out.println("[DEBUG] gradeParams = " + gradeParams);
-    // System.out.println("[DEBUG] ifTotal = " + ifTotal + ", ifWithoutElse = " + ifWithoutElse);
+  private static double weight(Properties weights, GradingRule rule) {
+    String value = weights.getProperty(rule.id());
+    if (value == null) return rule.defaultWeight();
+    try {
+      return Math.max(0, Double.parseDouble(value.trim()));
+    } catch (NumberFormatException e) {
+      System.err.println("Bad weight for " + rule.id() + " in " + CONFIG_FILE + ": " + value);
+      return rule.defaultWeight();
+    }
+  }
 
-    return new GradeReport(ifWithoutElse, magic, unusedLocals, unusedParams, commentAnalysis,gradeLocals,gradeParams,ifTotal);
+  /** Weights from evala-grading.properties in dir (null = the process working directory), empty if there is none. */
+  static Properties loadWeights(File dir) {
+    File file = new File(dir, CONFIG_FILE);
+    Properties weights = new Properties();
+    if (file.exists()) {
+      try (Reader in = new FileReader(file)) {
+        weights.load(in);
+      } catch (IOException e) {
+        System.err.println("Failed to read " + file + ": " + e);
+      }
+    }
+    return weights;
   }
 }
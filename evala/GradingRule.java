@@ -0,0 +1,73 @@
+package evala;
+
+import java.util.List;
+
+/** One grading criterion. A rule reads the shared analysis results in a
+ * Context and returns a scored Section of the report. Rules must not keep
+ * state between calls: independent rules are evaluated in parallel.
+ *
+ * Built-in rules live in GradingRules; more can be plugged in by listing
+ * implementations in META-INF/services/evala.GradingRule on the classpath.
+ */
+public interface GradingRule {
+
+  /** Key used for the rule's weight in the grading config, e.g. "magic-numbers". */
+  String id();
+
+  /** Points the rule is worth when no weight is configured; 0 = reported but not scored. */
+  default double defaultWeight() { return 20.0; }
+
+  /** Score the program out of weight points. */
+  Section evaluate(Context ctx, double weight);
+
+  /** Analysis results shared by all rules. */
+  final class Context {
+    public final Scanner.CommentStats comments;
+    public final UsageCollector.Usage usage;
+    public final int ifTotal;
+    public final int ifWithoutElse;
+    public final List<UsageCollector.MagicNumber> numericLiterals;
+    public final List<Stmt> program;
+    private DataFlow dataFlow;
+
+    public Context(Scanner.CommentStats comments, UsageCollector.Usage usage,
+                   int ifTotal, int ifWithoutElse, List<UsageCollector.MagicNumber> numericLiterals,
+                   List<Stmt> program) {
+      this.comments = comments;
+      this.usage = usage;
+      this.ifTotal = ifTotal;
+      this.ifWithoutElse = ifWithoutElse;
+      this.numericLiterals = List.copyOf(numericLiterals);
+      this.program = program;
+    }
+
+    /** Control-flow findings, computed once by whichever rule asks first. */
+    synchronized DataFlow dataFlow() {
+      if (dataFlow == null) dataFlow = DataFlow.analyze(program);
+      return dataFlow;
+    }
+  }
+
+  /** A scored part of GradedCode.md: "// score/weight" (omitted when the weight is 0) followed by the lines. */
+  final class Section {
+    public final double score;
+    public final double weight;
+    public final List<String> lines;
+
+    public Section(double score, double weight, List<String> lines) {
+      this.score = score;
+      this.weight = weight;
+      this.lines = List.copyOf(lines);
+    }
+
+    /** First line, e.g. "Magic numbers: 3". */
+    public String heading() { return lines.isEmpty() ? "" : lines.get(0); }
+
+    /** The remaining lines (the findings), without their indentation. */
+    public List<String> details() {
+      List<String> out = new java.util.ArrayList<>();
+      for (int i = 1; i < lines.size(); i++) out.add(lines.get(i).trim());
+      return out;
+    }
+  }
+}
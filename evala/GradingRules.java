@@ -0,0 +1,144 @@
+package evala;
+
+import java.util.*;
+
+/** The built-in grading criteria, in report order. Scores are scaled to the
+ * configured weight; with the default weights of 20 they match the original
+ * five 20-point criteria.
+ */
+final class GradingRules {
+  private GradingRules() {}
+
+  static List<GradingRule> builtins() {
+    return List.of(new IfElse(), new MagicNumbers(), new UnusedLocals(), new UnusedParams(), new CommentDensity(),
+                   new DeadStores(), new UnreachableCode(), new ReadBeforeAssign());
+  }
+
+  // share of branches that have an else
+  static final class IfElse implements GradingRule {
+    @Override public String id() { return "if-else"; }
+
+    @Override public Section evaluate(Context ctx, double weight) {
+      double score = ctx.ifTotal == 0 ? weight
+          : weight * (ctx.ifTotal - ctx.ifWithoutElse) / ctx.ifTotal;
+      return new Section(score, weight, List.of("If without else: " + ctx.ifWithoutElse));
+    }
+  }
+
+  // numeric literals not in the whitelist; one point (of 20) off for each
+  static final class MagicNumbers implements GradingRule {
+    private static final Set<String> MAGIC_WHITELIST = Set.of("-1.0","0.0","1.0");
+
+    @Override public String id() { return "magic-numbers"; }
+
+    @Override public Section evaluate(Context ctx, double weight) {
+      List<String> lines = new ArrayList<>();
+      int count = 0;
+      for (UsageCollector.MagicNumber m : ctx.numericLiterals) {
+        if (MAGIC_WHITELIST.contains(m.lexeme)) continue;
+        count++;
+        lines.add(m.line >= 0 ? "  line " + m.line + ": " + m.lexeme : "  " + m.lexeme);
+      }
+      lines.add(0, "Magic numbers: " + count);
+      double score = Math.max(weight - count * weight / 20.0, 0);
+      return new Section(score, weight, lines);
+    }
+  }
+
+  // declared variables that are never read
+  static final class UnusedLocals implements GradingRule {
+    @Override public String id() { return "unused-locals"; }
+
+    @Override public Section evaluate(Context ctx, double weight) {
+      List<String> unused = ctx.usage.unusedLocals;
+      int total = ctx.usage.variables;
+      // no locals: full credit; otherwise whole points only, as before
+      double score = total == 0 ? weight : Math.floor(weight * (total - unused.size()) / total);
+      List<String> lines = new ArrayList<>();
+      lines.add("Unused locals: " + unused.size());
+      for (String n : unused) lines.add("  " + n);
+      return new Section(score, weight, lines);
+    }
+  }
+
+  // parameters a function never reads
+  static final class UnusedParams implements GradingRule {
+    @Override public String id() { return "unused-params"; }
+
+    @Override public Section evaluate(Context ctx, double weight) {
+      List<String> lines = new ArrayList<>();
+      int paramCount = 0;
+      for (UsageCollector.FnUsage fn : ctx.usage.functions) {
+        paramCount += fn.params.size();
+        Set<String> diff = new HashSet<>(fn.params);
+        diff.removeAll(fn.paramsRead);
+        for (String p : diff) lines.add("  function " + fn.fnName + ": " + p);
+      }
+      int unused = lines.size();
+      lines.add(0, "Unused parameters: " + unused);
+      double score = paramCount == 0 ? weight : Math.floor(weight * (paramCount - unused) / paramCount);
+      return new Section(score, weight, lines);
+    }
+  }
+
+  // comment lines / total lines, best at 50%
+  static final class CommentDensity implements GradingRule {
+    @Override public String id() { return "comments"; }
+
+    @Override public Section evaluate(Context ctx, double weight) {
+      Scanner.CommentStats c = ctx.comments;
+      int commentLines = c.singleLine + c.blockLines;
+      int total = Math.max(c.totalLines, 1);
+      double ratio = (double) commentLines / total;
+      String verdict =
+          (total >= 20 && ratio < 0.05) ? "Too few comments"
+        : (ratio > 0.35)               ? "Too many comments"
+                                       : "Good";
+      double score = Math.max(0, 20 - Math.abs(50 - ratio * 100.0)) * weight / 20.0;
+      return new Section(Math.round(score * 100) / 100.0, weight, List.of(
+          "Comment density:",
+          "  total lines: " + c.totalLines,
+          "  code lines:  " + c.codeLines,
+          "  comment lines: " + commentLines,
+          String.format("  ratio: %.1f%%", ratio * 100.0),
+          "  verdict: " + verdict));
+    }
+  }
+
+  // Control-flow findings (see DataFlow): listed, not scored unless given a weight;
+  // then one point (of 20) off per finding, like magic numbers
+  private abstract static class DataFlowRule implements GradingRule {
+    private final String heading;
+    DataFlowRule(String heading) { this.heading = heading; }
+
+    @Override public double defaultWeight() { return 0; }
+
+    abstract List<String> findings(DataFlow df);
+
+    @Override public Section evaluate(Context ctx, double weight) {
+      List<String> found = findings(ctx.dataFlow());
+      List<String> lines = new ArrayList<>();
+      lines.add(heading + ": " + found.size());
+      for (String f : found) lines.add("  " + f);
+      return new Section(Math.max(weight - found.size() * weight / 20.0, 0), weight, lines);
+    }
+  }
+
+  static final class DeadStores extends DataFlowRule {
+    DeadStores() { super("Dead stores"); }
+    @Override public String id() { return "dead-stores"; }
+    @Override List<String> findings(DataFlow df) { return df.deadStores; }
+  }
+
+  static final class UnreachableCode extends DataFlowRule {
+    UnreachableCode() { super("Unreachable code"); }
+    @Override public String id() { return "unreachable-code"; }
+    @Override List<String> findings(DataFlow df) { return df.unreachable; }
+  }
+
+  static final class ReadBeforeAssign extends DataFlowRule {
+    ReadBeforeAssign() { super("Read before assignment"); }
+    @Override public String id() { return "read-before-assign"; }
+    @Override List<String> findings(DataFlow df) { return df.readBeforeAssign; }
+  }
+}
@@ -0,0 +1,14 @@
+package evala;
+
+/** Counts if statements and those without an else branch. */
+public final class IfElseAnalysis implements Analysis {
+  int ifTotal = 0;
+  int ifWithoutElse = 0;
+
+  @Override public void enterStmt(Stmt stmt, AnalysisPass pass) {
+    if (stmt instanceof Stmt.If) {
+      ifTotal++;
+      if (((Stmt.If) stmt).elseBranch == null) ifWithoutElse++;
+    }
+  }
+}
@@ -1,7 +1,10 @@
 package evala;
 
+import java.io.PrintStream;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {  
     final Environment globals = new Environment();      // a fixed reference to the outermost global environment
@@ -9,6 +12,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     private class BreakException extends RuntimeException {}
     //create list of test cases
     public final List<TestCase> collectedTests = new ArrayList<>();
+    // non-null only while runTests is executing test cases
+    Coverage coverage = null;
+    // where `print` statements go; swapped out when running code in-process for analysis
+    PrintStream out = System.out;
+    // non-null only with --trace
+    Trace trace = null;
+    // counted locally and added to the process-wide Metrics now and then
+    final Metrics.Local counts = new Metrics.Local();
+    // functions to memoize when defined (see enableMemoization)
+    private Set<Stmt.Function> memoized = Collections.emptySet();
+    private int memoCapacity = 0;
 
     Interpreter() {
         globals.define("TestCases", new EvalaCallable() {
@@ -75,18 +89,35 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             public Object call(Interpreter interpreter, List<Object> arguments) {
                 int total = 0;
                 int passed = 0;
+                Coverage coverage = new Coverage();
 
                 for (TestCase tc : interpreter.collectedTests) {
                     if (tc == null) continue;
                     total++;
 
-                    Object result = callFunctionByName(interpreter, tc.functionName, tc.args);
+                    Object result;
+                    interpreter.coverage = coverage;
+                    Events.TestCaseEvent event = Events.beginTest();
+                    long start = System.nanoTime();
+                    try {
+                        result = callFunctionByName(interpreter, tc.functionName, tc.args);
+                    } catch (RuntimeError error) {
+                        Metrics.TESTS.errored.increment();
+                        Events.endTest(event, tc, "error");
+                        throw error;
+                    } finally {
+                        interpreter.coverage = null;
+                        Metrics.TESTS.latency(System.nanoTime() - start);
+                    }
                     boolean ok = java.util.Objects.equals(result, tc.expected);
+                    Events.endTest(event, tc, ok ? "pass" : "fail");
 
                     if (ok) {
                         passed++;
+                        Metrics.TESTS.passed.increment();
                         System.out.println("[PASS] " + tc.functionName + tc.args + " == " + tc.expected);
                     } else {
+                        Metrics.TESTS.failed.increment();
                         System.out.println("[FAIL] " + tc.functionName + tc.args
                                 + " expected: " + tc.expected
                                 + ", got: " + result);
@@ -96,6 +127,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 System.out.println("--- TEST SUMMARY ---");
                 System.out.println("Passed " + passed + " / " + total);
 
+                List<String> coverageLines = coverage.summaryLines();
+                if (!coverageLines.isEmpty()) {
+                    System.out.println("--- COVERAGE ---");
+                    for (String line : coverageLines) System.out.println(line);
+                    GradeReport.addSection("GradedCode", "Test coverage", coverageLines);
+                }
+
                 // return fraction passed (double)
                 if (total == 0) return 0.0;
                 return (double) passed / (double) total;
@@ -119,6 +157,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         EvalaCallable fn = (EvalaCallable) callee;
+        if (interpreter.coverage != null && fn instanceof EvalaFunction) {
+            interpreter.coverage.register(((EvalaFunction) fn).declaration());
+        }
 
         int expectedArity = fn.arity();
         if (expectedArity >= 0 && expectedArity != args.size()) {
@@ -131,13 +172,32 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 }
 
 
+    /** Cache results of the given (pure) functions, keeping at most capacity entries per function. */
+    void enableMemoization(Set<Stmt.Function> pureFunctions, int capacity) {
+        this.memoized = pureFunctions;
+        this.memoCapacity = capacity;
+    }
+
+    /** Define only the top-level functions of a program, without running anything else. */
+    void defineFunctions(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function) execute(statement);
+        }
+    }
+
     void interpret(List<Stmt> statements) {
+        Metrics.INTERPRETER.running.increment();
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
+            if (trace != null) trace.error(error);
+            Metrics.INTERPRETER.runtimeErrors.increment();
             Evala.runtimeError(error);
+        } finally {
+            counts.flush();
+            Metrics.INTERPRETER.running.decrement();
         }
     }
 
@@ -262,6 +322,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     private void execute(Stmt stmt) {
+        if (coverage != null) coverage.statement(stmt);
+        if (trace != null) trace.statement(stmt);
+        if (++counts.statements == Metrics.FLUSH_STATEMENTS) counts.flush();
         stmt.accept(this);
     }
 
@@ -281,6 +344,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        counts.environments++;
         executeBlock(stmt.statements, new Environment(environment));
         return null;
     }
@@ -293,14 +357,18 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        EvalaFunction function = new EvalaFunction(stmt, environment);
+        EvalaFunction function = memoized.contains(stmt)
+            ? new EvalaFunction(stmt, environment, memoCapacity)
+            : new EvalaFunction(stmt, environment);
         environment.define(stmt.name.lexeme, function);
         return null;
     }
 
     @Override
     public Void visitIfStmt(Stmt.If stmt) {
-        if (isTruthy(evaluate(stmt.condition))) {
+        boolean taken = isTruthy(evaluate(stmt.condition));
+        if (coverage != null) coverage.branch(stmt, taken);
+        if (taken) {
             execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
             execute(stmt.elseBranch);
@@ -311,7 +379,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        out.println(stringify(value));
         return null;
     }
 
@@ -335,7 +403,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
+        for (;;) {
+            boolean taken = isTruthy(evaluate(stmt.condition));
+            if (coverage != null) coverage.branch(stmt, taken);
+            if (!taken) break;
             try {
                 execute(stmt.body);
             } catch (BreakException e) {
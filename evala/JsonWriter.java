@@ -0,0 +1,89 @@
+package evala;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/** Minimal streaming JSON writer: values go straight to the Writer, nothing is
+ * buffered beyond one flag per open object/array (used to place commas).
+ */
+final class JsonWriter {
+  private final Writer out;
+  private final Deque<Boolean> first = new ArrayDeque<>();   // per open container: nothing written yet
+  private boolean afterName = false;
+
+  JsonWriter(Writer out) {
+    this.out = out;
+  }
+
+  JsonWriter beginObject() throws IOException { open('{'); return this; }
+  JsonWriter endObject() throws IOException { close('}'); return this; }
+  JsonWriter beginArray() throws IOException { open('['); return this; }
+  JsonWriter endArray() throws IOException { close(']'); return this; }
+
+  JsonWriter name(String name) throws IOException {
+    separator();
+    string(name);
+    out.write(':');
+    afterName = true;
+    return this;
+  }
+
+  JsonWriter value(String s) throws IOException {
+    separator();
+    if (s == null) out.write("null"); else string(s);
+    return this;
+  }
+
+  JsonWriter value(double d) throws IOException {
+    separator();
+    // JSON has no NaN/Infinity; whole numbers without a trailing .0
+    if (Double.isNaN(d) || Double.isInfinite(d)) out.write("null");
+    else if (d == Math.rint(d) && Math.abs(d) < 1e15) out.write(Long.toString((long) d));
+    else out.write(Double.toString(d));
+    return this;
+  }
+
+  private void open(char c) throws IOException {
+    separator();
+    out.write(c);
+    first.push(true);
+  }
+
+  private void close(char c) throws IOException {
+    first.pop();
+    out.write(c);
+  }
+
+  private void separator() throws IOException {
+    if (afterName) {
+      afterName = false;
+      return;
+    }
+    if (!first.isEmpty()) {
+      if (!first.peek()) out.write(',');
+      first.pop();
+      first.push(false);
+    }
+  }
+
+  private void string(String s) throws IOException {
+    out.write('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"' -> out.write("\\\"");
+        case '\\' -> out.write("\\\\");
+        case '\n' -> out.write("\\n");
+        case '\r' -> out.write("\\r");
+        case '\t' -> out.write("\\t");
+        default -> {
+          if (c < 0x20) out.write(String.format("\\u%04x", (int) c));
+          else out.write(c);
+        }
+      }
+    }
+    out.write('"');
+  }
+}
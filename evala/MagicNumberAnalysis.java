@@ -0,0 +1,28 @@
+package evala;
+
+import java.util.*;
+
+/** Numeric literals outside variable initializers and assigned values (magic-number candidates). */
+public final class MagicNumberAnalysis implements Analysis {
+  final List<UsageCollector.MagicNumber> magicNumbers = new ArrayList<>();
+  // initializer/assigned-value expressions we are currently inside of
+  private final Deque<Expr> initializers = new ArrayDeque<>();
+
+  @Override public void enterExpr(Expr expr, AnalysisPass pass) {
+    Object parent = pass.parent();
+    if ((parent instanceof Stmt.Var && ((Stmt.Var) parent).initializer == expr)
+        || (parent instanceof Expr.Assign && ((Expr.Assign) parent).value == expr)) {
+      initializers.push(expr);
+    }
+
+    if (expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Double
+        && initializers.isEmpty()) {
+      // No token available, so we can't report a line. Use -1.
+      magicNumbers.add(new UsageCollector.MagicNumber(String.valueOf(((Expr.Literal) expr).value), -1));
+    }
+  }
+
+  @Override public void exitExpr(Expr expr, AnalysisPass pass) {
+    if (initializers.peek() == expr) initializers.pop();
+  }
+}
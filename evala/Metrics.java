@@ -0,0 +1,177 @@
+package evala;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** Process-wide counters for the long-running modes (--daemon, --batch),
+ * published as MXBeans in the "evala" domain once register() is called:
+ *   evala:type=Interpreter  statements, calls, call depth, runtime errors, environments
+ *   evala:type=TestRuns     runTests outcomes and a latency histogram
+ *   evala:type=Pipeline     time spent in each Phase of Evala.run
+ *
+ * Counters are LongAdders, so concurrent daemon requests don't contend on
+ * one cache line. The interpreter's per-statement counts don't touch them
+ * at all: each Interpreter counts in plain fields (Local) and adds its
+ * totals every FLUSH_STATEMENTS statements and when a run ends.
+ */
+final class Metrics {
+    static final long FLUSH_STATEMENTS = 1 << 16;
+
+    static final InterpreterStats INTERPRETER = new InterpreterStats();
+    static final TestStats TESTS = new TestStats();
+    static final PipelineStats PIPELINE = new PipelineStats();
+
+    private static boolean registered = false;
+
+    private Metrics() {}
+
+    /** Publish the MXBeans on the platform MBean server; later calls do nothing. */
+    static synchronized void register() {
+        if (registered) return;
+        registered = true;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(INTERPRETER, new ObjectName("evala:type=Interpreter"));
+            server.registerMBean(TESTS, new ObjectName("evala:type=TestRuns"));
+            server.registerMBean(PIPELINE, new ObjectName("evala:type=Pipeline"));
+        } catch (JMException e) {
+            System.err.println("Failed to register metrics: " + e);
+        }
+    }
+
+    public interface InterpreterMXBean {
+        long getStatementsExecuted();
+        long getCalls();
+        long getMaxCallDepth();
+        long getRuntimeErrors();
+        long getEnvironmentsAllocated();
+        long getRunsInProgress();
+    }
+
+    static final class InterpreterStats implements InterpreterMXBean {
+        final LongAdder statements = new LongAdder();
+        final LongAdder calls = new LongAdder();
+        final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+        final LongAdder runtimeErrors = new LongAdder();
+        final LongAdder environments = new LongAdder();
+        final LongAdder running = new LongAdder();
+
+        @Override public long getStatementsExecuted() { return statements.sum(); }
+        @Override public long getCalls() { return calls.sum(); }
+        @Override public long getMaxCallDepth() { return maxDepth.get(); }
+        @Override public long getRuntimeErrors() { return runtimeErrors.sum(); }
+        @Override public long getEnvironmentsAllocated() { return environments.sum(); }
+        @Override public long getRunsInProgress() { return running.sum(); }
+    }
+
+    /** One interpreter's counts since its last flush; only its own thread touches them.
+     * An interpreter that isn't running the user's program (the one guided test
+     * generation uses to try candidate inputs) clears published, so its flushes
+     * are dropped instead of inflating the process-wide totals. */
+    static final class Local {
+        long statements;
+        long calls;
+        long environments;
+        int depth;
+        int maxDepth;
+        boolean published = true;
+
+        void flush() {
+            if (!published) {
+                statements = calls = environments = 0;
+                return;
+            }
+            INTERPRETER.statements.add(statements);
+            INTERPRETER.calls.add(calls);
+            INTERPRETER.environments.add(environments);
+            INTERPRETER.maxDepth.accumulate(maxDepth);
+            statements = calls = environments = 0;
+        }
+    }
+
+    public interface TestRunsMXBean {
+        long getTestsRun();
+        long getTestsPassed();
+        long getTestsFailed();
+        long getTestsErrored();
+        double getMeanLatencyMillis();
+        /** Element i counts tests that took less than 2^i microseconds (and at least 2^(i-1)). */
+        long[] getLatencyHistogram();
+    }
+
+    static final class TestStats implements TestRunsMXBean {
+        private static final int BUCKETS = 32;
+
+        final LongAdder run = new LongAdder();
+        final LongAdder passed = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder errored = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+        TestStats() {
+            for (int i = 0; i < BUCKETS; i++) histogram[i] = new LongAdder();
+        }
+
+        /** A test finished (passed or not) after nanos. */
+        void latency(long nanos) {
+            run.increment();
+            totalNanos.add(nanos);
+            int bucket = 64 - Long.numberOfLeadingZeros(nanos / 1000);
+            histogram[Math.min(bucket, BUCKETS - 1)].increment();
+        }
+
+        @Override public long getTestsRun() { return run.sum(); }
+        @Override public long getTestsPassed() { return passed.sum(); }
+        @Override public long getTestsFailed() { return failed.sum(); }
+        @Override public long getTestsErrored() { return errored.sum(); }
+
+        @Override
+        public double getMeanLatencyMillis() {
+            long n = run.sum();
+            return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+        }
+
+        @Override
+        public long[] getLatencyHistogram() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) counts[i] = histogram[i].sum();
+            return counts;
+        }
+    }
+
+    public interface PipelineMXBean {
+        long getProgramsRun();
+        long getScanNanos();
+        long getParseNanos();
+        long getAnalyzeNanos();
+        long getGradeNanos();
+        long getReportNanos();
+        long getExecuteNanos();
+    }
+
+    static final class PipelineStats implements PipelineMXBean {
+        final LongAdder programs = new LongAdder();
+        private final LongAdder[] nanos = new LongAdder[Phase.values().length];
+
+        PipelineStats() {
+            for (int i = 0; i < nanos.length; i++) nanos[i] = new LongAdder();
+        }
+
+        void add(Phase phase, long elapsed) {
+            nanos[phase.ordinal()].add(elapsed);
+        }
+
+        @Override public long getProgramsRun() { return programs.sum(); }
+        @Override public long getScanNanos() { return nanos[Phase.SCAN.ordinal()].sum(); }
+        @Override public long getParseNanos() { return nanos[Phase.PARSE.ordinal()].sum(); }
+        @Override public long getAnalyzeNanos() { return nanos[Phase.ANALYZE.ordinal()].sum(); }
+        @Override public long getGradeNanos() { return nanos[Phase.GRADE.ordinal()].sum(); }
+        @Override public long getReportNanos() { return nanos[Phase.REPORT.ordinal()].sum(); }
+        @Override public long getExecuteNanos() { return nanos[Phase.EXECUTE.ordinal()].sum(); }
+    }
+}
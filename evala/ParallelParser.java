@@ -0,0 +1,70 @@
+package evala;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parser for large token streams: Parser.topLevelRanges splits the stream
+ * into top-level declarations, consecutive declarations are grouped into
+ * runs of about equal size, and each run is parsed on the fork-join pool.
+ * The runs' statements are concatenated in source order.
+ *
+ * Region parsers don't report errors. If any run hits one, the whole file is
+ * parsed again sequentially, so error messages and recovery are exactly
+ * those of Parser; only programs that parse cleanly take the parallel path.
+ */
+public final class ParallelParser {
+    static final int MIN_TOKENS = 64 * 1024;   // per run; smaller files are parsed sequentially
+
+    private final TokenBuffer tokens;
+
+    public ParallelParser(TokenBuffer tokens) {
+        this.tokens = tokens;
+    }
+
+    public List<Stmt> parse() {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        int runs = Math.min(parallelism * 4, tokens.size() / MIN_TOKENS);
+        if (parallelism < 2 || runs < 2) return new Parser(tokens).parse();
+
+        List<int[]> ranges = Parser.topLevelRanges(tokens);
+        tokens.internAll();     // the runs share the identifier table read-only
+
+        List<ForkJoinTask<Run>> tasks = new ArrayList<>();
+        int perRun = tokens.size() / runs;
+        int from = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            int to = ranges.get(i)[1];
+            if (to - from >= perRun || i == ranges.size() - 1) {
+                int start = from;
+                tasks.add(ForkJoinTask.adapt(() -> run(start, to)).fork());
+                from = to;
+            }
+        }
+
+        List<Stmt> statements = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            Run run = tasks.get(i).join();
+            if (run.failed) {
+                for (int k = i + 1; k < tasks.size(); k++) tasks.get(k).cancel(false);
+                return new Parser(tokens).parse();
+            }
+            statements.addAll(run.statements);
+        }
+        return statements;
+    }
+
+    private static final class Run {
+        final List<Stmt> statements;
+        final boolean failed;
+        Run(List<Stmt> statements, boolean failed) { this.statements = statements; this.failed = failed; }
+    }
+
+    private Run run(int from, int to) {
+        Parser parser = new Parser(tokens, from, to);
+        List<Stmt> statements = parser.parse();
+        return new Run(statements, parser.failed());
+    }
+}
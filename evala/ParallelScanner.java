@@ -0,0 +1,118 @@
+package evala;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Scanner for large sources: the text is cut into chunks at line starts and
+ * every chunk is scanned on the fork-join pool as if it began outside any
+ * token. Only strings and block comments can carry over a newline, so a
+ * chunk's guess is right exactly when the text before it ended outside them.
+ * The chunks are then merged in order; where the previous region ended inside
+ * a string or comment, the next chunks are rescanned together with it until
+ * the scan ends cleanly. Tokens, line numbers, comment counts and errors come
+ * out the same as from one Scanner over the whole source.
+ *
+ * Small sources are scanned sequentially.
+ */
+public final class ParallelScanner {
+    static final int MIN_CHUNK = 256 * 1024;    // chars; below two of these there is nothing to gain
+
+    private final String source;
+    private Scanner.CommentStats comments;
+
+    public ParallelScanner(String source) {
+        this.source = source;
+    }
+
+    public TokenBuffer scanTokens() {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        int chunks = Math.min(parallelism * 4, source.length() / MIN_CHUNK);
+        if (parallelism < 2 || chunks < 2) {
+            Scanner scanner = new Scanner(source);
+            TokenBuffer tokens = scanner.scanTokens();
+            comments = scanner.getCommentStats();
+            return tokens;
+        }
+
+        int[] bounds = chunkBounds(chunks);
+        List<ForkJoinTask<Region>> tasks = new ArrayList<>();
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            int from = bounds[i], to = bounds[i + 1];
+            tasks.add(ForkJoinTask.adapt(() -> region(from, to)).fork());
+        }
+
+        TokenBuffer tokens = new TokenBuffer(source);
+        List<Scanner.LexError> errors = new ArrayList<>();
+        int line = 1;
+        int singleLine = 0, blockLines = 0, codeLines = 0;
+        for (int i = 0; i < tasks.size(); ) {
+            Region r = tasks.get(i).join();
+            int next = i + 1;
+            // Fix-up: the region ends inside a string or comment, so the speculative
+            // scans after it started in the wrong state. Rescan it with the following
+            // chunks, doubling how many are taken, until it ends cleanly.
+            for (int take = 1; r.scanner.endedInside() && next < tasks.size(); take *= 2) {
+                int upTo = Math.min(tasks.size(), next + take);
+                for (int k = next; k < upTo; k++) tasks.get(k).cancel(false);
+                next = upTo;
+                r = region(bounds[i], bounds[next]);
+            }
+
+            Scanner scanner = r.scanner;
+            int offset = line - 1;
+            tokens.append(r.tokens, offset);
+            for (Scanner.LexError e : scanner.deferredErrors()) {
+                errors.add(new Scanner.LexError(e.line + offset, e.message));
+            }
+            Scanner.CommentStats c = scanner.getCommentStats();
+            singleLine += c.singleLine;
+            blockLines += c.blockLines;
+            codeLines += c.codeLines;   // regions hold whole lines, so no line is counted twice
+            line += scanner.line() - 1;
+            i = next;
+        }
+        tokens.add(TokenType.EOF, source.length(), 0, line, null);
+        comments = new Scanner.CommentStats(singleLine, blockLines, codeLines, line);
+
+        // reported here, on the caller's thread, since the error flag belongs to its Session
+        for (Scanner.LexError e : errors) Evala.error(e.line, e.message);
+        return tokens;
+    }
+
+    Scanner.CommentStats getCommentStats() {
+        return comments;
+    }
+
+    private static final class Region {
+        final Scanner scanner;
+        final TokenBuffer tokens;
+        Region(Scanner scanner, TokenBuffer tokens) { this.scanner = scanner; this.tokens = tokens; }
+    }
+
+    // Scan source[from, to) from line 1; the caller shifts the lines into place
+    private Region region(int from, int to) {
+        Scanner scanner = new Scanner(source, from, to, 1);
+        return new Region(scanner, scanner.scanTokens());
+    }
+
+    // About `chunks` equal pieces, each ending just after a newline (or at the end of the source)
+    private int[] chunkBounds(int chunks) {
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        int target = source.length() / chunks;
+        int at = 0;
+        while (true) {
+            int cut = source.indexOf('\n', at + target - 1);
+            if (cut < 0 || cut + 1 >= source.length()) break;
+            at = cut + 1;
+            bounds.add(at);
+        }
+        bounds.add(source.length());
+        int[] out = new int[bounds.size()];
+        for (int i = 0; i < out.length; i++) out[i] = bounds.get(i);
+        return out;
+    }
+}
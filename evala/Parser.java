@@ -8,15 +8,31 @@ import static evala.TokenType.*;
 public class Parser {
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
+    private final TokenBuffer tokens;
+    private final int end;         // index of the token parsing stops at (EOF for a whole file)
+    private final boolean quiet;   // note errors in failed instead of reporting them
+    private boolean failed = false;
     private int current = 0;
     private int loopStack = 0;     // number of enclosed loops
 
-    Parser(List<Token> tokens) {
+    public Parser(TokenBuffer tokens) {
         this.tokens = tokens;
+        this.end = tokens.size() - 1;
+        this.quiet = false;
     }
 
-    List<Stmt> parse() {
+    /**
+     * Parse only the top-level declarations in tokens [from, to), as given by
+     * topLevelRanges, without reporting errors; see failed().
+     */
+    Parser(TokenBuffer tokens, int from, int to) {
+        this.tokens = tokens;
+        this.current = from;
+        this.end = to;
+        this.quiet = true;
+    }
+
+    public List<Stmt> parse() {
         List<Stmt> statements = new ArrayList<>();
         while (!isAtEnd()) {
             statements.add(declaration());
@@ -24,8 +40,40 @@ public class Parser {
         return statements;
     }
 
-    private Expr expression() {
-        return assignment();
+    /**
+     * Whether a region parse hit a syntax error or ran past its end. The
+     * region's statements can't be trusted then: error recovery may skip
+     * differently than it would in the whole file.
+     */
+    boolean failed() {
+        return failed || current != end;
+    }
+
+    /**
+     * Splits a token list into top-level declarations without parsing them.
+     * Returns [from, to) token index pairs; a declaration ends at a ';' or '}'
+     * outside any parentheses/braces, unless an 'else' follows.
+     */
+    static List<int[]> topLevelRanges(TokenBuffer tokens) {
+        List<int[]> ranges = new ArrayList<>();
+        int depth = 0;
+        int from = 0;
+        for (int i = 0; i < tokens.size() && tokens.type(i) != EOF; i++) {
+            switch (tokens.type(i)) {
+                case LEFT_PAREN: case LEFT_BRACE: depth++; break;
+                case RIGHT_PAREN: case RIGHT_BRACE: depth = Math.max(0, depth - 1); break;
+                default: break;
+            }
+            TokenType type = tokens.type(i);
+            if (depth == 0 && (type == SEMICOLON || type == RIGHT_BRACE)
+                    && tokens.type(i + 1) != ELSE) {
+                ranges.add(new int[] { from, i + 1 });
+                from = i + 1;
+            }
+        }
+        // trailing tokens of an unfinished declaration
+        if (from < tokens.size() - 1) ranges.add(new int[] { from, tokens.size() - 1 });
+        return ranges;
     }
 
     private Stmt declaration() {
@@ -55,13 +103,13 @@ public class Parser {
             error(previous(), "Cannot use 'break' outside of a loop.");
         }
 
-        consume(SEMICOLON, "Expect ';' after 'break'.");
+        expect(SEMICOLON, "Expect ';' after 'break'.");
         return new Stmt.Break();
     }
 
     private Stmt forStatement() {
         loopStack++;
-        consume(LEFT_PAREN, "Expect '(' after 'for'.");
+        expect(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initializer;
         if (match(SEMICOLON)) {
@@ -76,13 +124,13 @@ public class Parser {
         if (!check(SEMICOLON)) {
             condition = expression();
         }
-        consume(SEMICOLON, "Expect ';' after loop condition.");
+        expect(SEMICOLON, "Expect ';' after loop condition.");
 
         Expr increment = null;
         if (!check(RIGHT_PAREN)) {
             increment = expression();
         }
-        consume(RIGHT_PAREN, "Expect ')' after for clauses.");
+        expect(RIGHT_PAREN, "Expect ')' after for clauses.");
 
         Stmt body = statement();
 
@@ -102,9 +150,9 @@ public class Parser {
     }
 
     private Stmt ifStatement() {
-        consume(LEFT_PAREN, "Expect '(' after 'if'.");
+        expect(LEFT_PAREN, "Expect '(' after 'if'.");
         Expr condition = expression();
-        consume(RIGHT_PAREN, "Expect ')' after condition.");
+        expect(RIGHT_PAREN, "Expect ')' after condition.");
 
         Stmt thenBranch = statement();
         Stmt elseBranch = null;
@@ -117,7 +165,7 @@ public class Parser {
 
     private Stmt printStatement() {
         Expr value = expression();
-        consume(SEMICOLON, "Expect ';' after value.");
+        expect(SEMICOLON, "Expect ';' after value.");
         return new Stmt.Print(value);
     }
 
@@ -128,7 +176,7 @@ public class Parser {
             value = expression();
         }
 
-        consume(SEMICOLON, "Expect ';' after return value.");
+        expect(SEMICOLON, "Expect ';' after return value.");
         return new Stmt.Return(keyword, value);
     }
 
@@ -141,15 +189,15 @@ public class Parser {
             initializer = expression();
         }
 
-        consume(SEMICOLON, "Expect ';' after variable declaration.");
+        expect(SEMICOLON, "Expect ';' after variable declaration.");
         return new Stmt.Var(name, initializer);
     }
 
     private Stmt whileStatement() {
         loopStack++;
-        consume(LEFT_PAREN, "Expect '(' after 'while'.");
+        expect(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
-        consume(RIGHT_PAREN, "Expect ')' after condition.");
+        expect(RIGHT_PAREN, "Expect ')' after condition.");
 
         Stmt body = statement();
         loopStack--;
@@ -158,13 +206,13 @@ public class Parser {
     
     private Stmt expressionStatement() {
         Expr expr = expression();
-        consume(SEMICOLON, "Expect ';' after expression.");
+        expect(SEMICOLON, "Expect ';' after expression.");
         return new Stmt.Expression(expr);
     }
 
     private Stmt.Function function(String kind) {
         Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
-        consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
+        expect(LEFT_PAREN, "Expect '(' after " + kind + " name.");
         List<Token> parameters = new ArrayList<>();
         if (!check(RIGHT_PAREN)) {
         do {
@@ -176,9 +224,9 @@ public class Parser {
                 consume(IDENTIFIER, "Expect parameter name."));
         } while (match(COMMA));
         }
-        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+        expect(RIGHT_PAREN, "Expect ')' after parameters.");
 
-        consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        expect(LEFT_BRACE, "Expect '{' before " + kind + " body.");
         List<Stmt> body = block();
         return new Stmt.Function(name, parameters, body);
 
@@ -192,165 +240,221 @@ public class Parser {
             statements.add(declaration());
         }
 
-        consume(RIGHT_BRACE, "Expect '}' after block.");
+        expect(RIGHT_BRACE, "Expect '}' after block.");
         return statements;
     }
 
-    private Expr assignment() {
-        Expr expr = or();
-
-        if (match(EQUAL)) {
-            Token equals = previous(); // for error reporting
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
-            }
-            error(equals, "Invalid assignment target.");
+    /*
+     * Expressions are parsed by operator precedence with explicit stacks instead
+     * of one recursive method per level, so long operator chains and deeply
+     * nested parentheses/calls don't grow the Java stack. The trees are the
+     * same as the grammar's:
+     *
+     *   assignment -> IDENTIFIER "=" assignment | or      (right-assoc)
+     *   or -> and ( "or" and )*   ...   factor -> unary ( ( "/" | "*" ) unary )*
+     *   unary -> ( "!" | "-" ) unary | call
+     *   call -> primary ( "(" arguments? ")" )*
+     *
+     * Operators and operands live on two array stacks; each open "(" -- a
+     * grouping or an argument list -- is a Frame marking where its operators
+     * start.
+     */
+    private static final int PREC_ASSIGNMENT = 1;
+    private static final int PREC_OR = 2;
+    private static final int PREC_AND = 3;
+    private static final int PREC_EQUALITY = 4;
+    private static final int PREC_COMPARISON = 5;
+    private static final int PREC_TERM = 6;
+    private static final int PREC_FACTOR = 7;
+    private static final int PREC_UNARY = 8;
+
+    // Binding power of each binary operator by TokenType ordinal; 0 = not one
+    private static final int[] BINARY_PRECEDENCE = new int[TokenType.values().length];
+    static {
+        BINARY_PRECEDENCE[EQUAL.ordinal()] = PREC_ASSIGNMENT;
+        BINARY_PRECEDENCE[OR.ordinal()] = PREC_OR;
+        BINARY_PRECEDENCE[AND.ordinal()] = PREC_AND;
+        for (TokenType t : new TokenType[] {BANG_EQUAL, EQUAL_EQUAL}) BINARY_PRECEDENCE[t.ordinal()] = PREC_EQUALITY;
+        for (TokenType t : new TokenType[] {GREATER, GREATER_EQUAL, LESS, LESS_EQUAL}) {
+            BINARY_PRECEDENCE[t.ordinal()] = PREC_COMPARISON;
         }
-
-        return expr;
-    }
-
-    private Expr or() {
-        Expr expr = and();
-
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
+        for (TokenType t : new TokenType[] {MINUS, PLUS}) BINARY_PRECEDENCE[t.ordinal()] = PREC_TERM;
+        for (TokenType t : new TokenType[] {SLASH, STAR}) BINARY_PRECEDENCE[t.ordinal()] = PREC_FACTOR;
+    }
+
+    // Stacks reused by every expression() call (expressions never nest a statement).
+    // Operators are (token, precedence) pairs; a prefix ! or - has PREC_UNARY.
+    private Token[] opTokens = new Token[16];
+    private int[] opPrecedence = new int[16];
+    private int opCount = 0;
+    private Expr[] operands = new Expr[16];
+    private int operandCount = 0;
+
+    // An open "(": a grouping (callee == null) or an argument list. opBase is
+    // where its operators start on the operator stack.
+    private static final class Frame {
+        final Frame outer;
+        final int opBase;
+        final Expr callee;
+        final List<Expr> arguments;
+        Frame(Frame outer, int opBase, Expr callee) {
+            this.outer = outer;
+            this.opBase = opBase;
+            this.callee = callee;
+            this.arguments = callee == null ? null : new ArrayList<>();
         }
-
-        return expr;
     }
 
-    private Expr and() {
-        Expr expr = equality();
+    private Expr expression() {
+        int opBase = opCount;          // stacks are empty unless an earlier expression threw
+        int operandBase = operandCount;
+        Frame frame = null;            // null = top level of the expression
+        boolean expectOperand = true;
+
+        for (;;) {
+            TokenType type = tokens.type(current);
+            int frameOps = frame == null ? opBase : frame.opBase;
+
+            if (expectOperand) {
+                if (type == BANG || type == MINUS) {
+                    pushOperator(tokens.token(current), PREC_UNARY);
+                    advance();
+                } else if (type == LEFT_PAREN) {
+                    advance();
+                    frame = new Frame(frame, opCount, null);
+                } else {
+                    pushOperand(primary());
+                    expectOperand = false;
+                }
+                continue;
+            }
 
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-        return expr;
-    }
+            if (type == LEFT_PAREN) {
+                // call: binds tighter than any pending operator, so it takes the operand as is
+                advance();
+                Expr callee = operands[--operandCount];
+                if (check(RIGHT_PAREN)) {
+                    pushOperand(new Expr.Call(callee, consume(RIGHT_PAREN, "Expect ')' after arguments."), new ArrayList<>()));
+                } else {
+                    frame = new Frame(frame, opCount, callee);
+                    startArgument(frame);
+                    expectOperand = true;
+                }
+                continue;
+            }
 
-    private Expr equality() {
-        Expr expr = comparison();
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
+            int precedence = BINARY_PRECEDENCE[type.ordinal()];
+            if (precedence > 0) {
+                Token token = tokens.token(current);
+                advance();
+                boolean rightAssoc = precedence == PREC_ASSIGNMENT;
+                while (opCount > frameOps
+                        && (opPrecedence[opCount - 1] > precedence
+                            || (!rightAssoc && opPrecedence[opCount - 1] == precedence))) {
+                    reduce();
+                }
+                pushOperator(token, precedence);
+                expectOperand = true;
+                continue;
+            }
 
-    private Expr comparison() {
-        Expr expr = term();
+            // end of the current frame's expression
+            while (opCount > frameOps) reduce();
 
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr term() {
-        Expr expr = factor();
+            if (frame == null) {
+                operandCount = operandBase;
+                return operands[operandBase];
+            }
 
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
+            if (frame.callee == null) {
+                expect(RIGHT_PAREN, "Expect ')' after expression.");
+                operands[operandCount - 1] = new Expr.Grouping(operands[operandCount - 1]);
+                frame = frame.outer;
+            } else if (match(COMMA)) {
+                frame.arguments.add(operands[--operandCount]);
+                startArgument(frame);
+                expectOperand = true;
+            } else {
+                frame.arguments.add(operands[--operandCount]);
+                Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+                pushOperand(new Expr.Call(frame.callee, paren, frame.arguments));
+                frame = frame.outer;
+            }
         }
-        return expr;
     }
 
-    private Expr factor() {
-        Expr expr = unary();
-
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+    private void startArgument(Frame call) {
+        if (call.arguments.size() >= 255) {
+            error(peek(), "Can't have more than 255 arguments.");
         }
-        return expr;
     }
 
-    private Expr unary() {
-        if (match(BANG, MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
+    private void pushOperator(Token token, int precedence) {
+        if (opCount == opTokens.length) {
+            opTokens = Arrays.copyOf(opTokens, opCount * 2);
+            opPrecedence = Arrays.copyOf(opPrecedence, opCount * 2);
         }
-        return call();
+        opTokens[opCount] = token;
+        opPrecedence[opCount++] = precedence;
     }
 
-    private Expr call() {
-        Expr expr = primary();
-
-        while (true) { 
-        if (match(LEFT_PAREN)) {
-            expr = finishCall(expr);
-        } else {
-            break;
-        }
-        }
-
-        return expr;
+    private void pushOperand(Expr expr) {
+        if (operandCount == operands.length) operands = Arrays.copyOf(operands, operandCount * 2);
+        operands[operandCount++] = expr;
     }
 
-    private Expr finishCall(Expr callee) {
-        List<Expr> arguments = new ArrayList<>();
-        if (!check(RIGHT_PAREN)) {
-            do {
-                if (arguments.size() >= 255) {
-                    error(peek(), "Can't have more than 255 arguments.");
+    // Pop one operator and apply it to the operand(s) on top of the stack
+    private void reduce() {
+        Token op = opTokens[--opCount];
+        opTokens[opCount] = null;
+        Expr right = operands[--operandCount];
+        operands[operandCount] = null;
+        if (opPrecedence[opCount] == PREC_UNARY) {
+            pushOperand(new Expr.Unary(op, right));
+            return;
+        }
+        Expr left = operands[operandCount - 1];
+        switch (op.type) {
+            case EQUAL:
+                if (left instanceof Expr.Variable) {
+                    operands[operandCount - 1] = new Expr.Assign(((Expr.Variable) left).name, right);
+                } else {
+                    error(op, "Invalid assignment target.");
                 }
-                arguments.add(expression());
-            } while (match(COMMA));
+                break;
+            case OR: case AND:
+                operands[operandCount - 1] = new Expr.Logical(left, op, right);
+                break;
+            default:
+                operands[operandCount - 1] = new Expr.Binary(left, op, right);
         }
-
-        Token paren = consume(RIGHT_PAREN,
-                            "Expect ')' after arguments.");
-
-        return new Expr.Call(callee, paren, arguments);
     }
 
-
-
+    // Literals and variables; "(" is handled by expression()
     private Expr primary() {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
-
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
-
-        if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
+        int i = current;
+        switch (tokens.type(i)) {
+            case FALSE: advance(); return new Expr.Literal(false);
+            case TRUE: advance(); return new Expr.Literal(true);
+            case NIL: advance(); return new Expr.Literal(null);
+            case NUMBER: case STRING: advance(); return new Expr.Literal(tokens.literal(i));
+            case IDENTIFIER: advance(); return new Expr.Variable(tokens.token(i));
+            default: throw error(peek(), "Expect expression.");
         }
-
-        if (match(LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
-
-        throw error(peek(), "Expect expression.");
     }
 
-
-
-
     /* General parsing utility methods */
 
+    /** Consume a token whose Token object is needed (a name, a call's paren). */
     private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
-        throw error(peek(), message);
+        expect(type, message);
+        return previous();
+    }
+
+    /** Consume punctuation; no Token object is made. */
+    private void expect(TokenType type, String message) {
+        if (check(type)) advance();
+        else throw error(peek(), message);
     }
 
     /** Consumes the next token if it matches any of the given type(s) */
@@ -366,28 +470,29 @@ public class Parser {
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) current++;
-        return previous();
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return current >= end || tokens.type(current) == TokenType.EOF;
     }
 
+    // Materializes a Token: only for error messages
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private ParseError error(Token token, String message) {
-        Evala.error(token.line, message);
+        if (quiet) failed = true;
+        else Evala.error(token.line, message);
         return new ParseError();
     }
     
@@ -395,9 +500,9 @@ public class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == SEMICOLON) return;
+            if (tokens.type(current - 1) == SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case CLASS: case FUN: case VAR:
                 case FOR: case IF: case WHILE:
                 case PRINT: case RETURN:
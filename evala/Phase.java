@@ -0,0 +1,20 @@
+package evala;
+
+/** Stages of Evala.run, in order. TESTS (writing EvalaTests_ files) happens
+ * inside ANALYZE and is only reported by --timings.
+ */
+enum Phase {
+    SCAN("scan"),
+    PARSE("parse"),
+    ANALYZE("analyze"),
+    TESTS("  test files"),
+    GRADE("grade"),
+    REPORT("write report"),
+    EXECUTE("execute");
+
+    final String label;
+
+    Phase(String label) {
+        this.label = label;
+    }
+}
@@ -0,0 +1,190 @@
+package evala;
+
+import java.util.*;
+
+/** Finds top-level functions whose result depends only on their arguments,
+ * so calls can be memoized. A function is pure when it:
+ * - never prints
+ * - only assigns to its own parameters/locals
+ * - reads no global variables (other than top-level function names)
+ * - declares no nested functions (closures could capture mutable state)
+ * - only calls other pure top-level functions
+ * - is never redeclared, or assigned to, anywhere in the program
+ */
+public final class PurityAnalyzer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+  // Facts gathered from one function body
+  private static final class FnFacts {
+    final Stmt.Function declaration;
+    final Deque<Set<String>> scopes = new ArrayDeque<>();   // parameters, then one set per open block, innermost first
+    final Set<String> calls = new HashSet<>();
+    boolean impure = false;
+    FnFacts(Stmt.Function declaration) { this.declaration = declaration; }
+  }
+
+  private Map<String, Stmt.Function> topLevel = new HashMap<>();
+  private FnFacts current;
+
+  /** Returns the set of top-level function declarations that are safe to memoize. */
+  public Set<Stmt.Function> pureFunctions(List<Stmt> program) {
+    topLevel = new HashMap<>();
+    Set<String> redefined = new HashSet<>();
+    for (Stmt s : program) {
+      if (s instanceof Stmt.Function) {
+        Stmt.Function fn = (Stmt.Function) s;
+        if (topLevel.put(fn.name.lexeme, fn) != null) redefined.add(fn.name.lexeme);
+      }
+    }
+    // top-level names that are also declared as variables, or assigned anywhere
+    // (e.g. `fib = other;`), may be rebound at run time, so they can't be trusted as callees
+    for (Stmt s : program) {
+      if (s instanceof Stmt.Var) redefined.add(((Stmt.Var) s).name.lexeme);
+    }
+    new AnalysisPass(new Analysis() {
+      @Override public void enterExpr(Expr expr, AnalysisPass pass) {
+        if (expr instanceof Expr.Assign) redefined.add(((Expr.Assign) expr).name.lexeme);
+      }
+    }).walk(program);
+
+    Map<String, FnFacts> facts = new HashMap<>();
+    for (Map.Entry<String, Stmt.Function> e : topLevel.entrySet()) {
+      if (redefined.contains(e.getKey())) continue;
+      current = new FnFacts(e.getValue());
+      Set<String> params = new HashSet<>();
+      for (Token p : e.getValue().params) params.add(p.lexeme);
+      current.scopes.push(params);   // the body runs in the same environment as the parameters
+      for (Stmt s : e.getValue().body) if (s != null) s.accept(this);
+      if (!current.impure) facts.put(e.getKey(), current);
+    }
+    current = null;
+
+    // Fixed point: drop functions that call anything not (or no longer) known to be pure
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Iterator<FnFacts> it = facts.values().iterator(); it.hasNext(); ) {
+        FnFacts f = it.next();
+        if (!facts.keySet().containsAll(f.calls)) {
+          it.remove();
+          changed = true;
+        }
+      }
+    }
+
+    Set<Stmt.Function> pure = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (FnFacts f : facts.values()) pure.add(f.declaration);
+    return pure;
+  }
+
+  // Declared by the function in a scope that is still open here
+  private boolean isLocal(String name) {
+    for (Set<String> scope : current.scopes) if (scope.contains(name)) return true;
+    return false;
+  }
+
+  private void read(String name) {
+    if (isLocal(name)) return;
+    if (!topLevel.containsKey(name)) current.impure = true;   // global variable
+  }
+
+  // ---------------- Stmt visitors ----------------
+  @Override public Void visitBlockStmt(Stmt.Block stmt) {
+    current.scopes.push(new HashSet<>());
+    for (Stmt s : stmt.statements) if (s != null) s.accept(this);
+    current.scopes.pop();
+    return null;
+  }
+
+  @Override public Void visitExpressionStmt(Stmt.Expression stmt) {
+    stmt.expression.accept(this);
+    return null;
+  }
+
+  @Override public Void visitFunctionStmt(Stmt.Function stmt) {
+    current.impure = true;
+    return null;
+  }
+
+  @Override public Void visitIfStmt(Stmt.If stmt) {
+    stmt.condition.accept(this);
+    stmt.thenBranch.accept(this);
+    if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+    return null;
+  }
+
+  @Override public Void visitPrintStmt(Stmt.Print stmt) {
+    current.impure = true;
+    return null;
+  }
+
+  @Override public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value != null) stmt.value.accept(this);
+    return null;
+  }
+
+  @Override public Void visitWhileStmt(Stmt.While stmt) {
+    stmt.condition.accept(this);
+    stmt.body.accept(this);
+    return null;
+  }
+
+  @Override public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) stmt.initializer.accept(this);
+    current.scopes.peek().add(stmt.name.lexeme);
+    return null;
+  }
+
+  @Override public Void visitBreakStmt(Stmt.Break stmt) {
+    return null;
+  }
+
+  // ---------------- Expr visitors ----------------
+  @Override public Void visitAssignExpr(Expr.Assign expr) {
+    if (!isLocal(expr.name.lexeme)) current.impure = true;
+    expr.value.accept(this);
+    return null;
+  }
+
+  @Override public Void visitBinaryExpr(Expr.Binary expr) {
+    expr.left.accept(this);
+    expr.right.accept(this);
+    return null;
+  }
+
+  @Override public Void visitCallExpr(Expr.Call expr) {
+    if (expr.callee instanceof Expr.Variable
+        && !isLocal(((Expr.Variable) expr.callee).name.lexeme)) {
+      // resolved in the fixed point; natives (clock, runTests, ...) are never in the pure set
+      current.calls.add(((Expr.Variable) expr.callee).name.lexeme);
+    } else {
+      current.impure = true;
+    }
+    for (Expr a : expr.arguments) a.accept(this);
+    return null;
+  }
+
+  @Override public Void visitGroupingExpr(Expr.Grouping expr) {
+    expr.expression.accept(this);
+    return null;
+  }
+
+  @Override public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override public Void visitLogicalExpr(Expr.Logical expr) {
+    expr.left.accept(this);
+    expr.right.accept(this);
+    return null;
+  }
+
+  @Override public Void visitUnaryExpr(Expr.Unary expr) {
+    expr.right.accept(this);
+    return null;
+  }
+
+  @Override public Void visitVariableExpr(Expr.Variable expr) {
+    read(expr.name.lexeme);
+    return null;
+  }
+}
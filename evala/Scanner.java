@@ -1,15 +1,14 @@
 package evala;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static evala.TokenType.*;
 
 public class Scanner {
     private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final int end;                  // scan source[0 or from, end)
+    private final TokenBuffer tokens;
     private int start = 0;
     private int current = 0;
     private int line = 1;
@@ -22,40 +21,52 @@ public class Scanner {
     // Track which line we already counted as "code" to avoid double-counting
     private int lastCodeLineCounted = -1;
 
+    // Region scans (see ParallelScanner) keep their errors instead of reporting
+    // them, and note when the region ends inside a string or block comment.
+    private final List<LexError> deferredErrors;
+    private boolean endedInside = false;
 
-    private static final Map<String, TokenType> keywords;
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", AND);
-        keywords.put("class", CLASS);
-        keywords.put("else", ELSE);
-        keywords.put("false", FALSE);
-        keywords.put("for", FOR);
-        keywords.put("fun", FUN);
-        keywords.put("if", IF);
-        keywords.put("nil", NIL);
-        keywords.put("or", OR);
-        keywords.put("print", PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super", SUPER);
-        keywords.put("this", THIS);
-        keywords.put("true", TRUE);
-        keywords.put("var", VAR);
-        keywords.put("while", WHILE);
-        keywords.put("break", BREAK);
-    }
-
-    Scanner(String source) {
+    // Exact powers of ten; m / 10^k is correctly rounded while m < 2^53 and k <= 22
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    public Scanner(String source) {
+        this(source, 1);
+    }
+
+    /** Scan a fragment of a larger file whose first character is on line firstLine. */
+    Scanner(String source, int firstLine) {
+        this.source = source;
+        this.end = source.length();
+        this.line = firstLine;
+        this.tokens = new TokenBuffer(source);
+        this.deferredErrors = null;
+    }
+
+    /**
+     * Scan source[from, to) as if it started on line firstLine, collecting
+     * errors in deferredErrors() rather than reporting them. Token offsets stay
+     * relative to the whole source.
+     */
+    Scanner(String source, int from, int to, int firstLine) {
         this.source = source;
+        this.end = to;
+        this.start = from;
+        this.current = from;
+        this.line = firstLine;
+        this.tokens = new TokenBuffer(source);
+        this.deferredErrors = new ArrayList<>();
     }
 
-    List<Token> scanTokens() { 
+    public TokenBuffer scanTokens() {
         while (!isAtEnd()) {
             start = current;
             scanToken();
         }
 
-        tokens.add(new Token(TokenType.EOF, "", null, line));
+        tokens.add(TokenType.EOF, current, 0, line, null);
         return tokens;
     }
 
@@ -84,11 +95,13 @@ public class Scanner {
                 } else if (match('*')) {
                     // consume /* ... */ and count lines inside
                     int startLine = line;
+                    boolean closed = false;
                     while (!isAtEnd()) {
                         if (peek() == '\n') line++;
-                        if (peek() == '*' && peekNext() == '/') { advance(); advance(); break; }
+                        if (peek() == '*' && peekNext() == '/') { advance(); advance(); closed = true; break; }
                         advance();
                     }
+                    if (!closed) endedInside = true;
                     int consumed = Math.max(0, line - startLine);
                     blockCommentLines += (consumed == 0 ? 1 : consumed); // count at least 1 line
                 } else {
@@ -109,7 +122,7 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Evala.error(line, "Unexpected character.");
+                    error("Unexpected character.");
                 }
             }
         }
@@ -117,26 +130,79 @@ public class Scanner {
 
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
+        addToken(keyword());
+    }
+
+    // Reserved word or IDENTIFIER, decided on the source characters: branch on
+    // the first letter (and the second where several keywords share one), then
+    // compare the rest in place.
+    private TokenType keyword() {
+        int length = current - start;
+        if (length < 2 || length > 6) return IDENTIFIER;
+        switch (source.charAt(start)) {
+            case 'a': return rest(1, "nd", AND);
+            case 'b': return rest(1, "reak", BREAK);
+            case 'c': return rest(1, "lass", CLASS);
+            case 'e': return rest(1, "lse", ELSE);
+            case 'f':
+                switch (source.charAt(start + 1)) {
+                    case 'a': return rest(2, "lse", FALSE);
+                    case 'o': return rest(2, "r", FOR);
+                    case 'u': return rest(2, "n", FUN);
+                }
+                return IDENTIFIER;
+            case 'i': return rest(1, "f", IF);
+            case 'n': return rest(1, "il", NIL);
+            case 'o': return rest(1, "r", OR);
+            case 'p': return rest(1, "rint", PRINT);
+            case 'r': return rest(1, "eturn", RETURN);
+            case 's': return rest(1, "uper", SUPER);
+            case 't':
+                switch (source.charAt(start + 1)) {
+                    case 'h': return rest(2, "is", THIS);
+                    case 'r': return rest(2, "ue", TRUE);
+                }
+                return IDENTIFIER;
+            case 'v': return rest(1, "ar", VAR);
+            case 'w': return rest(1, "hile", WHILE);
+        }
+        return IDENTIFIER;
+    }
 
-        // See if the identifier is a reserved word.
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
-        addToken(type);
+    private TokenType rest(int offset, String rest, TokenType type) {
+        if (current - start == offset + rest.length() && source.startsWith(rest, start + offset)) return type;
+        return IDENTIFIER;
     }
 
     private void number() {
-        while (isDigit(peek())) advance();
+        // Accumulate the digits as we go; the leading digit was already consumed.
+        long mantissa = source.charAt(start) - '0';
+        int digits = 1;
+        while (isDigit(peek())) {
+            mantissa = mantissa * 10 + (advance() - '0');
+            digits++;
+        }
 
         // Look for a fractional part.
+        int fractionDigits = 0;
         if (peek() == '.' && isDigit(peekNext())) {
             // Consume the ".".
             advance();
 
-            while (isDigit(peek())) advance();
+            while (isDigit(peek())) {
+                mantissa = mantissa * 10 + (advance() - '0');
+                fractionDigits++;
+            }
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        double value;
+        if (digits + fractionDigits <= 15) {
+            // Fits exactly in a double, so one division gives the same rounding as parseDouble.
+            value = mantissa / POWERS_OF_TEN[fractionDigits];
+        } else {
+            value = Double.parseDouble(source.substring(start, current));
+        }
+        addToken(NUMBER, value);
     }
 
     private void string() {
@@ -146,7 +212,8 @@ public class Scanner {
         }
 
         if (isAtEnd()) {
-            Evala.error(line, "Unterminated string.");
+            endedInside = true;
+            error("Unterminated string.");
             return;
         }
 
@@ -157,6 +224,11 @@ public class Scanner {
         addToken(STRING, value);
     }
 
+    private void error(String message) {
+        if (deferredErrors == null) Evala.error(line, message);
+        else deferredErrors.add(new LexError(line, message));
+    }
+
     private boolean match(char expected) {
         if (isAtEnd()) return false;
         if (source.charAt(current) != expected) return false;
@@ -170,7 +242,7 @@ public class Scanner {
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
+        if (current + 1 >= end) return '\0';
         return source.charAt(current + 1);
     }
 
@@ -189,7 +261,7 @@ public class Scanner {
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
     }
 
     private char advance() {
@@ -201,8 +273,7 @@ public class Scanner {
     }
     //Changed to count code lines
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        tokens.add(type, start, current - start, line, literal);
 
         if (type != TokenType.EOF && lastCodeLineCounted != line) {
             // We don't count tokens that come only from whitespace/comments (we never add those anyway)
@@ -211,6 +282,21 @@ public class Scanner {
         }
 
     }
+    /** Errors held back by a region scan, in source order. */
+    List<LexError> deferredErrors() { return deferredErrors; }
+
+    /** Whether a region scan stopped inside an unterminated string or block comment. */
+    boolean endedInside() { return endedInside; }
+
+    /** Line the scanner had reached when it stopped. */
+    int line() { return line; }
+
+    static final class LexError {
+        final int line;
+        final String message;
+        LexError(int line, String message) { this.line = line; this.message = message; }
+    }
+
     //Check comments
     public static final class CommentStats {
         public final int singleLine;
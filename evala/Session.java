@@ -0,0 +1,56 @@
+package evala;
+
+import java.io.File;
+
+/** State of one Evala run: error flags and the directory CodeReview/ is written under.
+ * The command line uses a single session for the whole process; the daemon gives
+ * every request its own session on the thread that serves it. Pool threads that
+ * do part of a run get a forWorker() copy, so a session is only ever written by
+ * one thread.
+ */
+final class Session {
+    private static final ThreadLocal<Session> current =
+        ThreadLocal.withInitial(() -> new Session(null));
+
+    final File workDir;     // null = the process working directory
+    String script = null;   // file being graded, for structured output
+    GradeReport report = null;  // last report graded in this session
+    java.util.Properties weights = null;    // grading weights; null = read evala-grading.properties from workDir
+    Timings timings = null;     // non-null while Evala.run is timing phases for --timings
+    Events.PhaseEvent phase = null;     // JFR event of the phase in progress
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+
+    Session(File workDir) {
+        this.workDir = workDir;
+    }
+
+    /** A session for a pool thread working on part of this run: same directory, script,
+     * weights and timings (whose tests() is thread-safe), but flags of its own. */
+    Session forWorker() {
+        Session worker = new Session(workDir);
+        worker.script = script;
+        worker.weights = weights;
+        worker.timings = timings;
+        return worker;
+    }
+
+    static Session current() {
+        return current.get();
+    }
+
+    static void begin(Session session) {
+        current.set(session);
+    }
+
+    static void end() {
+        current.remove();
+    }
+
+    /** CodeReview/ directory for this run, created if missing. */
+    File reviewDir() {
+        File dir = new File(workDir, "CodeReview");
+        if (!dir.exists()) dir.mkdirs();
+        return dir;
+    }
+}
@@ -0,0 +1,84 @@
+package evala;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+class TestCase {
+    final String functionName;
+    final List<Object> args;
+    final Object expected;
+    public int index;
+
+    // Constructor used from native TestCase(...) callable
+    TestCase(String functionName, List<Object> args, Object expected) {
+        this.functionName = functionName;
+        this.args = (args == null) ? Collections.emptyList() : new ArrayList<>(args);
+        this.expected = expected;
+    }
+
+
+    // new TestCase("add", 100.0, 0.0, null, 100.0)
+    TestCase(String functionName,int index, Object... argsAndExpected) {
+        this.functionName = functionName;
+        this.index=index;
+
+        if (argsAndExpected == null || argsAndExpected.length == 0) {
+            this.args = Collections.emptyList();
+            this.expected = null;
+        } else {
+            int n = argsAndExpected.length;
+            this.expected = argsAndExpected[n - 1];
+
+            Object[] argArray = Arrays.copyOf(argsAndExpected, n - 1);
+            this.args = Arrays.asList(argArray);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("TestCases(");
+        sb.append(formatValue(functionName));
+        for (Object arg : args) {
+            sb.append(", ");
+            sb.append(formatValue(arg));
+        }
+        sb.append(", ");
+        sb.append(formatValue(expected));
+
+        sb.append(");"); 
+        return sb.toString();
+    }
+
+
+
+    /**
+     * Render a Java Object as an Evala literal.
+     * 
+     */
+    private String formatValue(Object v) {
+        if (v == null) return "nil";
+
+        if (v instanceof String) {
+            // basic escaping
+            String s = (String) v;
+            s = s.replace("\\", "\\\\").replace("\"", "\\\"");
+            return "\"" + s + "\"";
+        }
+
+        if (v instanceof Boolean) {
+            return ((Boolean) v) ? "true" : "false";
+        }
+
+        // numbers (Double, Integer, etc.)
+        if (v instanceof Number) {
+            return v.toString();
+        }
+
+        // fallback: let toString() speak
+        return v.toString();
+    }
+}
@@ -1,21 +1,12 @@
 package evala;
 
-import evala.Expr.Assign;
 import evala.Expr.Binary;
-import evala.Expr.Call;
 import evala.Expr.Grouping;
 import evala.Expr.Literal;
-import evala.Expr.Logical;
 import evala.Expr.Unary;
 import evala.Expr.Variable;
-import evala.Stmt.Block;
-import evala.Stmt.Break;
-import evala.Stmt.Expression;
 import evala.Stmt.Function;
 import evala.Stmt.If;
-import evala.Stmt.Print;
-import evala.Stmt.Return;
-import evala.Stmt.Var;
 import evala.Stmt.While;
 import java.util.*;
 
@@ -48,111 +39,157 @@ class BooleanVar implements TestVariation {
     @Override public List<Object> representatives(){return Arrays.asList((Object)true,false);}
 }
 
+/**
+ * Boundary values taken from comparisons in if/while conditions. Each pivot
+ * (a literal the parameter is compared against, or 0 for parameter/parameter
+ * comparisons) contributes the values just below, on, and just above it.
+ */
+class BoundaryVar implements TestVariation {
+    final TreeSet<Double> pivots = new TreeSet<>();
+
+    @Override public List<Object> representatives() {
+        TreeSet<Double> values = new TreeSet<>();
+        for (double p : pivots) {
+            values.add(p - 1);
+            values.add(p);
+            values.add(p + 1);
+        }
+        return new ArrayList<>(values);
+    }
+}
 
 
 
-class TestCase {
-    final String functionName;
-    final List<Object> args;
-    final Object expected;
-    public int index;
-
-    // Constructor used from native TestCase(...) callable
-    TestCase(String functionName, List<Object> args, Object expected) {
-        this.functionName = functionName;
-        this.args = (args == null) ? Collections.emptyList() : new ArrayList<>(args);
-        this.expected = expected;
-    }
 
+/**
+ * Collects, per top-level function, how each parameter is used (arithmetic,
+ * negation, comparisons in conditions) and turns that into test inputs.
+ * Runs as an Analysis inside the shared AnalysisPass: its state is reset each
+ * time the pass enters a top-level function.
+ */
+public class TestGenerator implements Analysis {
 
-    // new TestCase("add", 100.0, 0.0, null, 100.0)
-    TestCase(String functionName,int index, Object... argsAndExpected) {
-        this.functionName = functionName;
-        this.index=index;
+    Map<String, TestVariation> varCases = new HashMap<>();
+    TestVariation curContext = new NoInfoVar();
+    // boundary variations win over varCases: a few targeted values beat random ones
+    Map<String, BoundaryVar> boundaries = new HashMap<>();
+    private final Set<String> params = new HashSet<>();
+    // contexts saved by enclosing arithmetic/negation, and the if/while conditions we're inside
+    private final Deque<TestVariation> savedContexts = new ArrayDeque<>();
+    private final Deque<Expr> conditions = new ArrayDeque<>();
+    // progress messages (guided generation)
+    java.io.PrintStream out = System.out;
 
-        if (argsAndExpected == null || argsAndExpected.length == 0) {
-            this.args = Collections.emptyList();
-            this.expected = null;
-        } else {
-            int n = argsAndExpected.length;
-            this.expected = argsAndExpected[n - 1];
 
-            Object[] argArray = Arrays.copyOf(argsAndExpected, n - 1);
-            this.args = Arrays.asList(argArray);
-        }
+    public TestGenerator() {
     }
 
-    @Override
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
+    public TestGenerator(List<Token> params) {
+        begin(params);
+    }
 
-        sb.append("TestCases(");
-        sb.append(formatValue(functionName));
-        for (Object arg : args) {
-            sb.append(", ");
-            sb.append(formatValue(arg));
+    /** Start collecting for a new function with the given parameters. */
+    void begin(List<Token> params) {
+        varCases.clear();
+        boundaries.clear();
+        this.params.clear();
+        savedContexts.clear();
+        conditions.clear();
+        curContext = new NoInfoVar();
+        for (Token tok : params) {
+            varCases.put(tok.lexeme, curContext);
+            this.params.add(tok.lexeme);
         }
-        sb.append(", ");
-        sb.append(formatValue(expected));
-
-        sb.append(");"); 
-        return sb.toString();
     }
 
-
-
     /**
-     * Render a Java Object as an Evala literal.
-     * 
+     * Build test cases for the given function name and parameter list using
+     * the variation information collected in {@link #varCases}.
      */
-    private String formatValue(Object v) {
-        if (v == null) return "nil";
-
-        if (v instanceof String) {
-            // basic escaping
-            String s = (String) v;
-            s = s.replace("\\", "\\\\").replace("\"", "\\\"");
-            return "\"" + s + "\"";
-        }
-
-        if (v instanceof Boolean) {
-            return ((Boolean) v) ? "true" : "false";
-        }
-
-        // numbers (Double, Integer, etc.)
-        if (v instanceof Number) {
-            return v.toString();
+    public List<TestCase> generateTestCases(String functionName,int index, List<Token> params) {
+        List<List<Object>> combos = candidateInputs(params);
+        List<TestCase> out = new ArrayList<>();
+        for (List<Object> c : combos) {
+            out.add(newTestCase(functionName, index++, c));
         }
-
-        // fallback: let toString() speak
-        return v.toString();
+        return out;
     }
-}
-
 
+    // Steps a single candidate may execute before it is abandoned (guards infinite loops)
+    private static final long CANDIDATE_STEP_LIMIT = 100_000;
+    // Stop after this many candidates in a row added no coverage
+    private static final int PATIENCE = 16;
 
+    /**
+     * Coverage-guided variant of {@link #generateTestCases}: every candidate
+     * input is executed against the function in-process and kept only if it
+     * covers a statement or branch outcome no earlier candidate reached.
+     * Generation stops once everything is covered or new inputs stop helping.
+     */
+    public List<TestCase> generateGuidedTestCases(String functionName, int index,
+                                                  Stmt.Function function, List<Stmt> program) {
+        Interpreter sandbox = new Interpreter();
+        sandbox.out = new java.io.PrintStream(java.io.OutputStream.nullOutputStream());
+        sandbox.counts.published = false;
+        sandbox.defineFunctions(program);
 
-public class TestGenerator implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        Coverage coverage = new Coverage();
+        coverage.register(function);
 
-    Map<String, TestVariation> varCases = new HashMap<>();
-    TestVariation curContext = new NoInfoVar();
+        List<List<Object>> combos = candidateInputs(function.params);
+        List<TestCase> out = new ArrayList<>();
+        int sinceLastGain = 0;
+        for (List<Object> c : combos) {
+            int before = coverage.covered();
+            runCandidate(sandbox, coverage, functionName, c);
+            if (coverage.covered() > before) {
+                out.add(newTestCase(functionName, index++, c));
+                sinceLastGain = 0;
+            } else {
+                sinceLastGain++;
+            }
+            if (coverage.covered() == coverage.coverable() || sinceLastGain >= PATIENCE) break;
+        }
+        // Nothing measurable (e.g. function never reachable): keep one input so the file isn't empty
+        if (out.isEmpty() && !combos.isEmpty()) out.add(newTestCase(functionName, index, combos.get(0)));
 
+        this.out.println("Coverage-guided tests for " + functionName + ": kept " + out.size()
+                + " of " + combos.size() + " candidates, covered "
+                + coverage.covered() + "/" + coverage.coverable());
+        return out;
+    }
 
-    public TestGenerator(List<Token> params) {
-        for (Token tok : params) {
-            varCases.put(tok.lexeme, curContext);
+    private static void runCandidate(Interpreter sandbox, Coverage coverage,
+                                     String functionName, List<Object> candidate) {
+        // Generated numbers are Integers for printing; the interpreter only knows doubles
+        List<Object> args = new ArrayList<>();
+        for (Object v : candidate) args.add(v instanceof Number ? (Object) ((Number) v).doubleValue() : v);
+
+        coverage.limitSteps(CANDIDATE_STEP_LIMIT);
+        sandbox.coverage = coverage;
+        try {
+            Interpreter.callFunctionByName(sandbox, functionName, args);
+        } catch (RuntimeException | StackOverflowError e) {
+            // runtime errors and step-limit aborts still count for what they covered
+        } finally {
+            sandbox.coverage = null;
         }
     }
 
-    /**
-     * Build test cases for the given function name and parameter list using
-     * the variation information collected in {@link #varCases}.
-     */
-    public List<TestCase> generateTestCases(String functionName,int index, List<Token> params) {
+    private static TestCase newTestCase(String functionName, int index, List<Object> args) {
+        List<Object> argsPlusExpected = new ArrayList<>(args);
+        argsPlusExpected.add("expectedOutput");
+        return new TestCase(functionName, index, argsPlusExpected.toArray());
+    }
+
+    // Cartesian product of the representative values collected for each parameter
+    private List<List<Object>> candidateInputs(List<Token> params) {
         // For each parameter, obtain the representative values
         List<List<Object>> domain = new ArrayList<>();
         for (Token p : params) { 
-            TestVariation tv = varCases.get(p.lexeme);
+            TestVariation tv = boundaries.containsKey(p.lexeme)
+                ? boundaries.get(p.lexeme)
+                : varCases.get(p.lexeme);
             if (tv == null) tv = new NoInfoVar();
             List<Object> reps = tv.representatives();
             // ensure non-empty domain
@@ -161,14 +198,7 @@ public class TestGenerator implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
 
         // Cartesian product over domains
-        List<List<Object>> combos = cartesianProduct(domain);
-        List<TestCase> out = new ArrayList<>();
-        for (List<Object> c : combos) {
-            List<Object> argsPlusExpected = new ArrayList<>(c);
-            argsPlusExpected.add("expectedOutput");
-            out.add(new TestCase(functionName, index++, argsPlusExpected.toArray()));
-        }
-        return out;
+        return cartesianProduct(domain);
     }
 
     private static List<List<Object>> cartesianProduct(List<List<Object>> lists) {
@@ -193,170 +223,116 @@ public class TestGenerator implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 
 
-    //Walk through statements if not null
-    public void walk(List<Stmt> program) {
-        for (Stmt s : program) if (s != null) s.accept(this);
-    }
-
-
-
-
-    @Override
-    public Void visitBlockStmt(Block stmt) {
-        if (stmt == null) return null;
-        if (stmt.statements != null) {
-            for (Stmt s : stmt.statements) {
-                if (s != null) s.accept(this);
-            }
+    private static boolean isComparison(TokenType type) {
+        switch (type) {
+            case GREATER: case GREATER_EQUAL:
+            case LESS: case LESS_EQUAL:
+            case EQUAL_EQUAL: case BANG_EQUAL:
+                return true;
+            default:
+                return false;
         }
-        return null;
-    }
-
-    @Override
-    public Void visitExpressionStmt(Expression stmt) {
-        if (stmt == null) return null;
-        if (stmt.expression != null) stmt.expression.accept(this);
-        return null;
     }
 
-    @Override
-    public Void visitFunctionStmt(Function stmt) {
-        if (stmt == null) return null;
-        // params are Tokens; nothing to traverse there. Traverse body.
-        if (stmt.body != null) {
-            for (Stmt s : stmt.body) if (s != null) s.accept(this);
+    /** Name of the parameter an operand refers to, or null. */
+    private String paramOperand(Expr e) {
+        while (e instanceof Grouping) e = ((Grouping) e).expression;
+        if (e instanceof Variable && params.contains(((Variable) e).name.lexeme)) {
+            return ((Variable) e).name.lexeme;
         }
         return null;
     }
 
-    @Override
-    public Void visitIfStmt(If stmt) {
-        if (stmt == null) return null;
-        if (stmt.condition != null) stmt.condition.accept(this);
-        if (stmt.thenBranch != null) stmt.thenBranch.accept(this);
-        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
-        return null;
-    }
-
-    @Override
-    public Void visitPrintStmt(Print stmt) {
-        if (stmt == null) return null;
-        if (stmt.expression != null) stmt.expression.accept(this);
+    /** Numeric value of a literal operand (including a negated literal), or null. */
+    private static Double numberOperand(Expr e) {
+        while (e instanceof Grouping) e = ((Grouping) e).expression;
+        if (e instanceof Literal && ((Literal) e).value instanceof Double) {
+            return (Double) ((Literal) e).value;
+        }
+        if (e instanceof Unary && ((Unary) e).operator.type == TokenType.MINUS) {
+            Double inner = numberOperand(((Unary) e).right);
+            return inner == null ? null : -inner;
+        }
         return null;
     }
 
-    @Override
-    public Void visitReturnStmt(Return stmt) {
-        if (stmt == null) return null;
-        if (stmt.value != null) stmt.value.accept(this);
-        return null;
+    private BoundaryVar boundary(String param) {
+        return boundaries.computeIfAbsent(param, k -> new BoundaryVar());
     }
 
-    @Override
-    public Void visitWhileStmt(While stmt) {
-        if (stmt == null) return null;
-        if (stmt.condition != null) stmt.condition.accept(this);
-        if (stmt.body != null) stmt.body.accept(this);
-        return null;
+    /** Record boundary pivots for `param op literal` and `param op param` comparisons. */
+    private void collectBoundary(Binary expr) {
+        String left = paramOperand(expr.left);
+        String right = paramOperand(expr.right);
+        if (left != null && right != null) {
+            // share one variation so both params draw from the same values (<, ==, > all occur)
+            BoundaryVar shared = boundary(left);
+            BoundaryVar other = boundary(right);
+            if (other != shared) {
+                shared.pivots.addAll(other.pivots);
+                for (Map.Entry<String, BoundaryVar> e : boundaries.entrySet()) {
+                    if (e.getValue() == other) e.setValue(shared);
+                }
+            }
+            shared.pivots.add(0.0);
+            return;
+        }
+        if (left != null) {
+            Double n = numberOperand(expr.right);
+            if (n != null) boundary(left).pivots.add(n);
+        } else if (right != null) {
+            Double n = numberOperand(expr.left);
+            if (n != null) boundary(right).pivots.add(n);
+        }
     }
 
-    @Override
-    public Void visitVarStmt(Var stmt) {
-        if (stmt == null) return null;
-        if (stmt.initializer != null) stmt.initializer.accept(this);
-        return null;
+    private static boolean isArithmetic(TokenType type) {
+        return type == TokenType.PLUS || type == TokenType.MINUS
+            || type == TokenType.SLASH || type == TokenType.STAR;
     }
 
-    @Override
-    public Void visitBreakStmt(Break stmt) {
-        // nothing to traverse for a break statement
-        return null;
+    // arithmetic operands and negated values get positive/negative/zero inputs
+    private static boolean switchesContext(Expr expr) {
+        return (expr instanceof Binary && isArithmetic(((Binary) expr).operator.type))
+            || (expr instanceof Unary && ((Unary) expr).operator.type == TokenType.MINUS);
     }
 
     @Override
-    public Void visitAssignExpr(Assign expr) {
-        if (expr == null) return null;
-        if (expr.value != null) expr.value.accept(this);
-        return null;
+    public void enterStmt(Stmt stmt, AnalysisPass pass) {
+        if (stmt instanceof Function && pass.functionDepth() == 0) begin(((Function) stmt).params);
     }
 
     @Override
-    public Void visitBinaryExpr(Binary expr) {
-        if (expr == null) return null;
-        if(expr.operator.type == TokenType.PLUS ||
-            expr.operator.type== TokenType.MINUS ||
-            expr.operator.type== TokenType.SLASH ||
-            expr.operator.type== TokenType.STAR){
-
-                TestVariation saveContext = curContext;
-                curContext = new PosNegZeroVar();
-                if (expr.left != null) expr.left.accept(this);
-                if (expr.right != null) expr.right.accept(this);
-                curContext=saveContext;
-            }else{
-                 if (expr.left != null) expr.left.accept(this);
-                 if (expr.right != null) expr.right.accept(this);
-            }   
-       
-        return null;
-    }
+    public void enterExpr(Expr expr, AnalysisPass pass) {
+        if (pass.functionDepth() == 0) return;      // only function bodies matter
 
-    @Override
-    public Void visitCallExpr(Call expr) {
-        if (expr == null) return null;
-        if (expr.callee != null) expr.callee.accept(this);
-        if (expr.arguments != null) {
-            for (Expr e : expr.arguments) if (e != null) e.accept(this);
+        Object parent = pass.parent();
+        if ((parent instanceof If && ((If) parent).condition == expr)
+            || (parent instanceof While && ((While) parent).condition == expr)) {
+            conditions.push(expr);
         }
-        return null;
-    }
-
-    @Override
-    public Void visitGroupingExpr(Grouping expr) {
-        if (expr == null) return null;
-        if (expr.expression != null) expr.expression.accept(this);
-        return null;
-    }
-
-    @Override
-    public Void visitLiteralExpr(Literal expr) {
-        // literal has no children to traverse
-        return null;
-    }
 
-    @Override
-    public Void visitLogicalExpr(Logical expr) {
-        if (expr == null) return null;
-        if (expr.left != null) expr.left.accept(this);
-        if (expr.right != null) expr.right.accept(this);
-        return null;
-    }
-
-    @Override
-    public Void visitUnaryExpr(Unary expr) {
-        if (expr == null) return null;
+        if (expr instanceof Binary && !conditions.isEmpty()
+            && isComparison(((Binary) expr).operator.type)) {
+            collectBoundary((Binary) expr);
+        }
 
-        TestVariation saveContext = curContext;
-        if (expr.operator.type == TokenType.MINUS) {
+        if (switchesContext(expr)) {
+            savedContexts.push(curContext);
             curContext = new PosNegZeroVar();
+        } else if (expr instanceof Variable) {
+            this.varCases.put(((Variable) expr).name.lexeme, curContext);
         }
-
-
-        if (expr.right != null) expr.right.accept(this);
-
-        curContext = saveContext;
-        return null;
     }
 
     @Override
-    public Void visitVariableExpr(Variable expr) {
-        this.varCases.put(expr.name.lexeme, curContext);
-        return null;
+    public void exitExpr(Expr expr, AnalysisPass pass) {
+        if (pass.functionDepth() == 0) return;
+        if (switchesContext(expr)) curContext = savedContexts.pop();
+        if (conditions.peek() == expr) conditions.pop();
     }
 
 
-
-
     @Override
     public String toString() {
         return "TestGenerator [varCases=" + varCases + ", curContext=" + curContext + "]";
@@ -4,21 +4,20 @@ import java.util.*;
 
 public class TestPrinter {
     List<TestCase> generated = null;
+    java.io.PrintStream log = System.out;   // where the "generated to" message goes
     
     public TestPrinter(List<TestCase> generated){
         this.generated = generated;
     }
     public void writeToFile(String filename){
-        String dirPath = "CodeReview";
-        java.io.File dir = new java.io.File(dirPath);
         filename = filename +".eva";
         // Create directory if missing
-        if (!dir.exists()) dir.mkdirs();
+        java.io.File dir = Session.current().reviewDir();
 
         // Build full path
-        String fullPath = dirPath + "/" + filename;
+        String fullPath = "CodeReview/" + filename;
 
-        try (PrintWriter out = new PrintWriter(fullPath)) {
+        try (PrintWriter out = new PrintWriter(new java.io.File(dir, filename))) {
              out.println("// =======================================================");
             out.println("//            Evala Generated Test Files");
             out.println("//     Note: These tests may not be comprehensive.");
@@ -49,7 +48,7 @@ public class TestPrinter {
             out.flush();
            
 
-            System.out.println("Test cases generated to: "+ fullPath);
+            log.println("Test cases generated to: "+ fullPath);
 
         }catch(Exception e){
             System.err.println("Failed to write grade file: "+ e);
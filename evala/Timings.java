@@ -0,0 +1,147 @@
+package evala;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/** --timings: wall time and allocated bytes of each phase of one Evala.run,
+ * plus the size of the program (tokens, AST nodes, statements).
+ *
+ * Evala.run reports each phase's time with add(); the bytes allocated
+ * since the previous add() or mark() are charged along with it. Allocation is summed over all live
+ * threads, so the fork-join and analysis workers are included, and so is
+ * anything else the process does at the same time (other daemon requests).
+ * TESTS is the time spent generating and writing EvalaTests_ files inside
+ * ANALYZE, added up over the threads that did it; with parallel analysis it
+ * can exceed ANALYZE.
+ */
+final class Timings {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final long[] nanos = new long[Phase.values().length];
+    private final long[] allocated = new long[Phase.values().length];
+    private final boolean[] ran = new boolean[Phase.values().length];
+    private final LongAdder testNanos = new LongAdder();
+    private final LongAdder testAllocated = new LongAdder();
+    private long markAllocated;
+
+    int tokens;
+    int nodes;
+    int statements;
+
+    Timings() {
+        mark();
+    }
+
+    /** Start counting allocations from now, e.g. after work that belongs to no phase. */
+    void mark() {
+        markAllocated = allocatedBytes();
+    }
+
+    /** phase took nanos, and everything allocated since the last mark() or add() belongs to it. */
+    void add(Phase phase, long nanos) {
+        long bytes = allocatedBytes();
+        this.nanos[phase.ordinal()] += nanos;
+        allocated[phase.ordinal()] += Math.max(0, bytes - markAllocated);
+        ran[phase.ordinal()] = true;
+        markAllocated = bytes;
+    }
+
+    /** One function's test file took nanos and allocated bytes (on the calling thread); thread-safe. */
+    void tests(long nanos, long bytes) {
+        testNanos.add(nanos);
+        testAllocated.add(bytes);
+    }
+
+    /** Bytes allocated so far by the calling thread, -1 if the JVM can't tell. */
+    static long threadAllocatedBytes() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) return -1;
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // All live threads' allocations; threads that ended since the last mark drop out of the sum
+    private static long allocatedBytes() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) return -1;
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    /** Count the AST nodes and statements of program, nested ones included. */
+    void count(List<Stmt> program) {
+        new AnalysisPass(new Analysis() {
+            @Override
+            public void enterStmt(Stmt stmt, AnalysisPass pass) {
+                nodes++;
+                statements++;
+            }
+
+            @Override
+            public void enterExpr(Expr expr, AnalysisPass pass) {
+                nodes++;
+            }
+        }).walk(program);
+    }
+
+    private void collectTests() {
+        int i = Phase.TESTS.ordinal();
+        if (!ran[Phase.ANALYZE.ordinal()] || testNanos.sum() == 0) return;
+        nanos[i] = testNanos.sum();
+        allocated[i] = testAllocated.sum();
+        ran[i] = true;
+    }
+
+    void print(PrintStream out) {
+        collectTests();
+        boolean allocations = THREADS instanceof com.sun.management.ThreadMXBean;
+        out.println("--- TIMINGS ---");
+        out.printf("%-14s %12s %14s%n", "phase", "ms", allocations ? "allocated KB" : "");
+        long total = 0;
+        for (Phase phase : Phase.values()) {
+            int i = phase.ordinal();
+            if (!ran[i]) continue;
+            if (phase != Phase.TESTS) total += nanos[i];
+            out.printf("%-14s %12.3f %14s%n", phase.label, nanos[i] / 1e6,
+                    allocations ? String.format("%,d", allocated[i] / 1024) : "");
+        }
+        out.printf("%-14s %12.3f%n", "total", total / 1e6);
+        out.printf("%d tokens, %d AST nodes, %d statements%n", tokens, nodes, statements);
+    }
+
+    void writeJson(File file) {
+        collectTests();
+        try (Writer out = new FileWriter(file)) {
+            JsonWriter json = new JsonWriter(out);
+            json.beginObject();
+            json.name("script").value(Session.current().script);
+            json.name("tokens").value(tokens);
+            json.name("nodes").value(nodes);
+            json.name("statements").value(statements);
+            json.name("phases").beginArray();
+            for (Phase phase : Phase.values()) {
+                int i = phase.ordinal();
+                if (!ran[i]) continue;
+                json.beginObject();
+                json.name("phase").value(phase.name().toLowerCase());
+                json.name("nanos").value(nanos[i]);
+                json.name("allocatedBytes");
+                if (THREADS instanceof com.sun.management.ThreadMXBean) json.value(allocated[i]);
+                else json.value((String) null);
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+            out.write('\n');
+        } catch (IOException e) {
+            System.err.println("Failed to write timings: " + e);
+        }
+    }
+}
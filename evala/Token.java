@@ -5,12 +5,18 @@ public class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    final int offset;   // index of the first character in the source, -1 if synthetic
  
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, -1);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int offset) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.offset = offset;
     }
 
     public String toString() {
@@ -0,0 +1,142 @@
+package evala;
+
+import java.util.Arrays;
+
+/** Scanner output as parallel primitive arrays instead of one Token object
+ * per token: type ordinal, start offset, length and line, plus an index into
+ * a side table for number/string literals. Lexemes are only cut out of the
+ * source when asked for, and identifier lexemes are interned so every use of
+ * a name shares one String. Token objects are made on demand for the few
+ * tokens that end up in the AST or in an error message.
+ */
+public final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final String source;
+    private byte[] types = new byte[64];
+    private int[] starts = new int[64];
+    private int[] lengths = new int[64];
+    private int[] lines = new int[64];
+    private int[] literals = new int[64];     // index into literalValues, -1 = none
+    private int size = 0;
+
+    private Object[] literalValues = new Object[16];
+    private int literalCount = 0;
+
+    // open-addressing table of interned identifier lexemes
+    private String[] interned = new String[64];
+    private int internedCount = 0;
+
+    TokenBuffer(String source) {
+        this.source = source;
+    }
+
+    void add(TokenType type, int start, int length, int line, Object literal) {
+        if (size == types.length) grow();
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        if (literal == null) {
+            literals[size] = -1;
+        } else {
+            if (literalCount == literalValues.length) literalValues = Arrays.copyOf(literalValues, literalCount * 2);
+            literalValues[literalCount] = literal;
+            literals[size] = literalCount++;
+        }
+        size++;
+    }
+
+    /** Append every token of other but its EOF, moving lines down by lineOffset. Both must share the source. */
+    void append(TokenBuffer other, int lineOffset) {
+        int n = other.size - 1;
+        if (n <= 0) return;
+        while (size + n > types.length) grow();
+        System.arraycopy(other.types, 0, types, size, n);
+        System.arraycopy(other.starts, 0, starts, size, n);
+        System.arraycopy(other.lengths, 0, lengths, size, n);
+        for (int i = 0; i < n; i++) {
+            lines[size + i] = other.lines[i] + lineOffset;
+            int literal = other.literals[i];
+            literals[size + i] = literal < 0 ? -1 : literal + literalCount;
+        }
+        while (literalCount + other.literalCount > literalValues.length) {
+            literalValues = Arrays.copyOf(literalValues, literalValues.length * 2);
+        }
+        System.arraycopy(other.literalValues, 0, literalValues, literalCount, other.literalCount);
+        literalCount += other.literalCount;
+        size += n;
+    }
+
+    private void grow() {
+        int n = types.length * 2;
+        types = Arrays.copyOf(types, n);
+        starts = Arrays.copyOf(starts, n);
+        lengths = Arrays.copyOf(lengths, n);
+        lines = Arrays.copyOf(lines, n);
+        literals = Arrays.copyOf(literals, n);
+    }
+
+    public int size() { return size; }
+    TokenType type(int i) { return TYPES[types[i]]; }
+    int start(int i) { return starts[i]; }
+    int length(int i) { return lengths[i]; }
+    int line(int i) { return lines[i]; }
+
+    Object literal(int i) {
+        return literals[i] < 0 ? null : literalValues[literals[i]];
+    }
+
+    String lexeme(int i) {
+        if (types[i] == TokenType.IDENTIFIER.ordinal()) return intern(starts[i], lengths[i]);
+        return source.substring(starts[i], starts[i] + lengths[i]);
+    }
+
+    /** A Token for index i, for the AST and error reporting. */
+    Token token(int i) {
+        return new Token(type(i), lexeme(i), literal(i), lines[i], starts[i]);
+    }
+
+    /**
+     * Intern every identifier now. Afterwards lexeme() and token() only read
+     * the table, so several threads can call them at once.
+     */
+    void internAll() {
+        for (int i = 0; i < size; i++) {
+            if (types[i] == TokenType.IDENTIFIER.ordinal()) intern(starts[i], lengths[i]);
+        }
+    }
+
+    // Find source[start, start+length) in the table without allocating, adding it if new
+    private String intern(int start, int length) {
+        int h = 0;
+        for (int k = 0; k < length; k++) h = 31 * h + source.charAt(start + k);
+        int mask = interned.length - 1;
+        for (int slot = mix(h) & mask; ; slot = (slot + 1) & mask) {
+            String s = interned[slot];
+            if (s == null) {
+                s = source.substring(start, start + length);
+                interned[slot] = s;
+                if (++internedCount * 2 > interned.length) rehash();
+                return s;
+            }
+            if (s.length() == length && source.regionMatches(start, s, 0, length)) return s;
+        }
+    }
+
+    private void rehash() {
+        String[] old = interned;
+        interned = new String[old.length * 2];
+        int mask = interned.length - 1;
+        for (String s : old) {
+            if (s == null) continue;
+            int slot = mix(s.hashCode()) & mask;   // String.hashCode is the same 31-polynomial
+            while (interned[slot] != null) slot = (slot + 1) & mask;
+            interned[slot] = s;
+        }
+    }
+
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+}
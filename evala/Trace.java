@@ -0,0 +1,161 @@
+package evala;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Execution trace for --trace: statement entries, calls, returns and
+ * runtime errors, kept in a preallocated ring buffer of primitive records
+ * (kind, node id, line, timestamp), so a long run keeps only its last
+ * `capacity` events and recording never allocates per event. Nodes are
+ * numbered the first time they run; their labels go into the dump once.
+ *
+ * Dump format (big-endian, read by tool.TraceDump):
+ *   int magic "EVTR", short version
+ *   varint label count, then each label as modified UTF-8
+ *   varlong events recorded in total, varint events kept
+ *   per kept event, oldest first: byte kind, varint node, varint line + 1,
+ *   varlong nanoseconds since the previous event (the first: since the trace began)
+ */
+final class Trace {
+  static final byte STATEMENT = 0;
+  static final byte CALL = 1;
+  static final byte RETURN = 2;
+  static final byte ERROR = 3;
+
+  static final int MAGIC = 0x45565452;    // "EVTR"
+  static final int VERSION = 1;
+  static final int DEFAULT_CAPACITY = 1 << 16;
+
+  private final int mask;
+  private final byte[] kinds;
+  private final int[] nodes;
+  private final int[] lines;
+  private final long[] times;
+  private long recorded = 0;
+  private final long started = System.nanoTime();
+
+  // node -> id; labels and lines by id
+  private final Map<Object, Integer> ids = new IdentityHashMap<>();
+  private final List<String> labels = new ArrayList<>();
+  private int[] nodeLines = new int[64];
+
+  /** capacity is rounded up to a power of two. */
+  Trace(int capacity) {
+    int size = Integer.highestOneBit(Math.max(1, capacity));
+    if (size < capacity) size <<= 1;
+    mask = size - 1;
+    kinds = new byte[size];
+    nodes = new int[size];
+    lines = new int[size];
+    times = new long[size];
+  }
+
+  void statement(Stmt stmt) {
+    int id = id(stmt);
+    record(STATEMENT, id, nodeLines[id]);
+  }
+
+  void call(Stmt.Function fn) {
+    int id = id(fn);
+    record(CALL, id, nodeLines[id]);
+  }
+
+  void ret(Stmt.Function fn) {
+    int id = id(fn);
+    record(RETURN, id, nodeLines[id]);
+  }
+
+  void error(RuntimeError error) {
+    int id = label("error: " + error.getMessage(), -1);
+    record(ERROR, id, error.token == null ? -1 : error.token.line);
+  }
+
+  private void record(byte kind, int node, int line) {
+    int i = (int) (recorded++ & mask);
+    kinds[i] = kind;
+    nodes[i] = node;
+    lines[i] = line;
+    times[i] = System.nanoTime();
+  }
+
+  private int id(Stmt stmt) {
+    Integer id = ids.get(stmt);
+    if (id == null) {
+      id = label(describe(stmt), line(stmt));
+      ids.put(stmt, id);
+    }
+    return id;
+  }
+
+  private int label(String label, int line) {
+    int id = labels.size();
+    labels.add(label.length() > 200 ? label.substring(0, 200) + "..." : label);
+    if (id == nodeLines.length) nodeLines = Arrays.copyOf(nodeLines, id * 2);
+    nodeLines[id] = line;
+    return id;
+  }
+
+  private static String describe(Stmt stmt) {
+    if (stmt instanceof Stmt.Function) {
+      Token name = ((Stmt.Function) stmt).name;
+      return "fun " + (name == null ? "<anonymous>" : name.lexeme);
+    }
+    if (stmt instanceof Stmt.Var) return "var " + ((Stmt.Var) stmt).name.lexeme;
+    return stmt.getClass().getSimpleName().toLowerCase();
+  }
+
+  private static int line(Stmt stmt) {
+    if (stmt instanceof Stmt.Var) return ((Stmt.Var) stmt).name.line;
+    if (stmt instanceof Stmt.Function) {
+      Token name = ((Stmt.Function) stmt).name;
+      return name == null ? -1 : name.line;
+    }
+    if (stmt instanceof Stmt.Return) return ((Stmt.Return) stmt).keyword.line;
+    if (stmt instanceof Stmt.Expression) return ControlFlowGraph.line(((Stmt.Expression) stmt).expression);
+    if (stmt instanceof Stmt.Print) return ControlFlowGraph.line(((Stmt.Print) stmt).expression);
+    if (stmt instanceof Stmt.If) return ControlFlowGraph.line(((Stmt.If) stmt).condition);
+    if (stmt instanceof Stmt.While) return ControlFlowGraph.line(((Stmt.While) stmt).condition);
+    return -1;
+  }
+
+  void dump(File file) {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      writeVarLong(out, labels.size());
+      for (String label : labels) out.writeUTF(label);
+
+      int kept = (int) Math.min(recorded, mask + 1);
+      writeVarLong(out, recorded);
+      writeVarLong(out, kept);
+      long previous = started;
+      for (long n = recorded - kept; n < recorded; n++) {
+        int i = (int) (n & mask);
+        out.writeByte(kinds[i]);
+        writeVarLong(out, nodes[i]);
+        writeVarLong(out, lines[i] + 1);
+        writeVarLong(out, Math.max(0, times[i] - previous));
+        previous = times[i];
+      }
+    } catch (IOException e) {
+      System.err.println("Failed to write trace: " + e);
+    }
+  }
+
+  // unsigned LEB128: 7 bits per byte, high bit set on all but the last
+  private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+}
@@ -0,0 +1,135 @@
+package evala;
+
+import java.util.*;
+
+/** Scope-aware variable usage: which declared variables are never read, and
+ * which parameters each function reads.
+ *
+ * Every declaration (var, parameter, function name) gets a dense integer id
+ * when its scope declares it, and reads are recorded as bits in a BitSet
+ * (assignments don't count as uses), so an `x` read in one function no longer hides an unused `x` in
+ * another. Scopes follow the interpreter's environments: globals, one per
+ * function call (parameters + body) and one per block. Names not found in
+ * any enclosing local scope are globals, which may be declared later in the
+ * file; those are resolved by name once the pass is over.
+ */
+public final class UsageAnalysis implements Analysis {
+  // Names read that didn't resolve to a local; swapped out by UsageCollector to record one function
+  Set<String> reads = new HashSet<>();
+
+  // id -> label, and which ids are `var` declarations (as opposed to params and function names)
+  private final List<String> labels = new ArrayList<>();
+  private final BitSet variables = new BitSet();
+  private final BitSet read = new BitSet();
+
+  private final Map<String, Integer> globals = new HashMap<>();
+  private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();   // local scopes, innermost first
+
+  private static final class FnScope {
+    final UsageCollector.FnUsage usage;
+    final List<Token> params;
+    final int[] paramIds;
+    FnScope(UsageCollector.FnUsage usage, List<Token> params, int[] paramIds) {
+      this.usage = usage; this.params = params; this.paramIds = paramIds;
+    }
+  }
+  private final Deque<FnScope> fnStack = new ArrayDeque<>();
+  final List<UsageCollector.FnUsage> fnList = new ArrayList<>();
+
+  // Variables of functions replayed from the cache, which never got ids
+  int replayedVariables = 0;
+  final List<String> replayedUnused = new ArrayList<>();
+
+  @Override public void enterStmt(Stmt stmt, AnalysisPass pass) {
+    if (stmt instanceof Stmt.Function) {
+      Stmt.Function fn = (Stmt.Function) stmt;
+      String name = fn.name == null ? null : fn.name.lexeme;
+      if (name != null) declare(name, false);
+      UsageCollector.FnUsage fu = new UsageCollector.FnUsage(name);
+      scopes.push(new HashMap<>());
+      int[] paramIds = new int[fn.params.size()];
+      for (int i = 0; i < paramIds.length; i++) {
+        String p = fn.params.get(i).lexeme;
+        fu.params.add(p);
+        paramIds[i] = declare(p, false);
+      }
+      fnStack.push(new FnScope(fu, fn.params, paramIds));
+    } else if (stmt instanceof Stmt.Block) {
+      scopes.push(new HashMap<>());
+    }
+  }
+
+  @Override public void exitStmt(Stmt stmt, AnalysisPass pass) {
+    if (stmt instanceof Stmt.Var) {
+      // declared after the initializer runs, as in the interpreter
+      declare(((Stmt.Var) stmt).name.lexeme, true);
+    } else if (stmt instanceof Stmt.Function) {
+      scopes.pop();
+      FnScope fs = fnStack.pop();
+      for (int i = 0; i < fs.paramIds.length; i++) {
+        if (read.get(fs.paramIds[i])) fs.usage.paramsRead.add(fs.params.get(i).lexeme);
+      }
+      fnList.add(fs.usage);
+    } else if (stmt instanceof Stmt.Block) {
+      scopes.pop();
+    }
+  }
+
+  @Override public void enterExpr(Expr expr, AnalysisPass pass) {
+    if (expr instanceof Expr.Variable) {
+      String name = ((Expr.Variable) expr).name.lexeme;
+      int id = resolveLocal(name);
+      if (id >= 0) read.set(id); else reads.add(name);
+    }
+  }
+
+  /** Next id to be handed out; ids from here on belong to declarations after this point. */
+  int nextId() { return labels.size(); }
+
+  /** Number of `var` declarations with ids in [from, nextId()). */
+  int variablesSince(int from) {
+    return variables.get(from, Math.max(from, labels.size())).cardinality();
+  }
+
+  /**
+   * Labels of `var` declarations with ids in [from, nextId()) that are never read.
+   * Only meaningful for locals once their scope is closed, and for globals after the pass.
+   */
+  List<String> unreadSince(int from) {
+    BitSet unread = variables.get(0, labels.size());
+    unread.andNot(read);
+    List<String> out = new ArrayList<>();
+    for (int id = unread.nextSetBit(from); id >= 0; id = unread.nextSetBit(id + 1)) out.add(labels.get(id));
+    return out;
+  }
+
+  /** Credit reads of globals from anywhere in the program; call after the pass. */
+  void resolveGlobals(Collection<String> globalReads) {
+    for (String name : globalReads) {
+      Integer id = globals.get(name);
+      if (id != null) read.set(id);
+    }
+  }
+
+  private int declare(String name, boolean variable) {
+    Map<String, Integer> scope = scopes.isEmpty() ? globals : scopes.peek();
+    Integer id = scope.get(name);
+    if (id == null) {
+      // redeclaring in the same scope reuses the variable, like Environment.define
+      id = labels.size();
+      String fn = fnStack.isEmpty() ? null : fnStack.peek().usage.fnName;
+      labels.add(fn == null ? name : name + " (in " + fn + ")");
+      scope.put(name, id);
+    }
+    if (variable) variables.set(id);
+    return id;
+  }
+
+  private int resolveLocal(String name) {
+    for (Map<String, Integer> scope : scopes) {
+      Integer id = scope.get(name);
+      if (id != null) return id;
+    }
+    return -1;
+  }
+}
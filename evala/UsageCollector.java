@@ -1,41 +1,68 @@
 package evala;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.util.*;
-
-import evala.Expr.Logical;
-import evala.Stmt.Break;
-/** Walks the AST to collect:
- * - variable declarations & reads
- * - per-function param reads
- * - count of if-without-else
- * - numeric literals (magic-number candidates)
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/** Runs the front-end analyses over the AST in a single AnalysisPass:
+ * - declared variables that are never read, per-function param reads (UsageAnalysis)
+ * - count of if-without-else (IfElseAnalysis)
+ * - numeric literals, i.e. magic-number candidates (MagicNumberAnalysis)
+ * - test variations per top-level function (TestGenerator)
+ * and, on leaving each top-level function, writes its EvalaTests_ file.
+ * New analyses are added to the pass instead of walking the tree again.
+ *
+ * With several cores and at least MIN_FUNCTIONS top-level functions, each
+ * function declared directly at the top level is instead analyzed on its own
+ * on the common fork-join pool (shared, and bounded by the core count however
+ * many daemon requests run at once), with its test file, and the results are
+ * merged back in program order once the pass is over, so usage, fnList and
+ * printed messages come out the same.
  */
-public final class UsageCollector implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-
-  // Names written (declared/assigned) vs read
-  private final Set<String> writes = new HashSet<>();
-  private final Set<String> reads  = new HashSet<>();
-  // Track when we're visiting a var or assignment initializer this fixes magic number issue
-  private boolean inAssignmentInitializer = false;
-
-  private final Deque<FnUsage> fnStack = new ArrayDeque<>();
-  private final List<FnUsage> fnList = new ArrayList<>();
+public final class UsageCollector implements Analysis {
+  static final int MIN_FUNCTIONS = 4;   // fewer top-level functions are analyzed inline
+
+  private final UsageAnalysis usage = new UsageAnalysis();
+  private final IfElseAnalysis ifs = new IfElseAnalysis();
+  private final MagicNumberAnalysis magic = new MagicNumberAnalysis();
+  private final TestGenerator tests = new TestGenerator();
+  private final List<Analysis> extraAnalyses = new ArrayList<>();
+
+  // Whole program being walked; needed to run functions in-process for guided tests
+  private List<Stmt> program = Collections.emptyList();
+  private boolean guidedTests = false;
+  // top-level functions to (re)write EvalaTests_ files for; null = all of them
+  private Set<Stmt.Function> testTargets = null;
+  // per-function results from earlier runs; null = analyze everything
+  private FunctionCache cache = null;
+  private long programHash = 0;   // guided tests also depend on the functions they call
+
+  // Top-level function currently being analyzed with the cache on
+  private FunctionCache.Entry pending = null;
+  private boolean replayed = false;
+  private Set<String> outerReads;
+  private int idsBefore, ifsBefore, noElseBefore, magicBefore, fnsBefore;
+
+  // Parallel mode: top-level functions go to the pool, one slot per function in program order
+  private boolean parallel = false;
+  private final List<Slot> slots = new ArrayList<>();
+  private PrintStream log = System.out;              // messages of the function being analyzed inline
+  private ByteArrayOutputStream inlineOutput = null;
 
-  // Structural/style metrics
-  private int ifWithoutElse = 0;
-  private int ifTotal =0;
-  private final List<MagicNumber> magicNumbers = new ArrayList<>();
 
-  
   // Function -> params and paramsRead
   public static final class FnUsage {
     final String fnName;
     final Set<String> params = new HashSet<>();
     final Set<String> paramsRead = new HashSet<>();
-    FnUsage(String name) { 
+    FnUsage(String name) {
         if(name==null){
             this.fnName="<anonymous>";
-        }else{this.fnName=name;} 
+        }else{this.fnName=name;}
     }
   }
 
@@ -48,172 +75,294 @@ public final class UsageCollector implements Expr.Visitor<Void>, Stmt.Visitor<Vo
 
   //Walk through statements if not null
   public void walk(List<Stmt> program) {
-    for (Stmt s : program) if (s != null) s.accept(this);
+    this.program = program;
+    if (cache != null && guidedTests) {
+      for (Stmt s : program) if (s instanceof Stmt.Function) programHash = programHash * 31 + AstHasher.hash(s);
+    }
+    List<Analysis> analyses = new ArrayList<>(List.of(this, usage, ifs, magic, tests));
+    analyses.addAll(extraAnalyses);
+
+    parallel = extraAnalyses.isEmpty()
+        && ForkJoinPool.getCommonPoolParallelism() > 1
+        && topLevelFunctions(program) >= MIN_FUNCTIONS;
+    try {
+      new AnalysisPass(analyses).walk(program);
+      mergeSlots();
+    } finally {
+      parallel = false;
+      slots.clear();
+    }
+    usage.resolveGlobals(usage.reads);
   }
 
+  private static int topLevelFunctions(List<Stmt> program) {
+    int n = 0;
+    for (Stmt s : program) if (s instanceof Stmt.Function) n++;
+    return n;
+  }
+
+  /** Register another analysis to run in the same pass (must be called before walk). */
+  void addAnalysis(Analysis analysis) { extraAnalyses.add(analysis); }
+
   public Usage getUsage() {
-    return new Usage(reads, writes, fnList);
+    List<String> unused = new ArrayList<>(usage.unreadSince(0));
+    unused.addAll(usage.replayedUnused);
+    Collections.sort(unused);
+    return new Usage(usage.variablesSince(0) + usage.replayedVariables, unused, usage.fnList);
   }
 
-  public int getIfWithoutElse() { return ifWithoutElse; }
-  public int getIfTotal(){return ifTotal;}
-  public List<MagicNumber> getMagicNumbers() { return magicNumbers; }
+  /** Keep only generated tests that add branch coverage (see TestGenerator.generateGuidedTestCases). */
+  void setGuidedTests(boolean guidedTests) { this.guidedTests = guidedTests; }
+
+  /** Only generate test files for these functions (watch mode regenerates just what changed). */
+  void setTestTargets(Set<Stmt.Function> testTargets) { this.testTargets = testTargets; }
+
+  /** Reuse (and refresh) per-function results keyed by the function's structural hash. */
+  void setCache(FunctionCache cache) { this.cache = cache; }
+
+  public int getIfWithoutElse() { return ifs.ifWithoutElse; }
+  public int getIfTotal(){return ifs.ifTotal;}
+  public List<MagicNumber> getMagicNumbers() { return magic.magicNumbers; }
 
   public static final class Usage {
-    public final Set<String> reads;
-    public final Set<String> writes;
+    public final int variables;             // `var` declarations, one per variable per scope
+    public final List<String> unusedLocals; // those never read, labelled "name (in function)"
     public final List<FnUsage> functions;
-    Usage(Set<String> r, Set<String> w, List<FnUsage> fns) {
-      this.reads = Collections.unmodifiableSet(new HashSet<>(r)); //makes an unmutable view object
-      this.writes = Collections.unmodifiableSet(new HashSet<>(w));
+    Usage(int variables, List<String> unused, List<FnUsage> fns) {
+      this.variables = variables;
+      this.unusedLocals = Collections.unmodifiableList(new ArrayList<>(unused));
       this.functions = Collections.unmodifiableList(new ArrayList<>(fns));
     }
   }
 
-  // ---------------- Stmt visitors ----------------
-  @Override public Void visitVarStmt(Stmt.Var stmt) {
-    writes.add(stmt.name.lexeme);
-    if (stmt.initializer != null){
-        boolean prev = inAssignmentInitializer;
-        inAssignmentInitializer=true;
-        stmt.initializer.accept(this);
-        inAssignmentInitializer=prev;
-    } 
-    return null;
-  }
+  // ---------------- top-level functions ----------------
+  @Override public void enterStmt(Stmt stmt, AnalysisPass pass) {
+    if (!(stmt instanceof Stmt.Function) || pass.functionDepth() != 0) return;
+    Stmt.Function fn = (Stmt.Function) stmt;
+    if (parallel) {
+      if (pass.parent() == null) {
+        // nothing outside the function is in scope but globals, so it can be analyzed on its own
+        slots.add(dispatch(fn));
+        pass.skipSubtree();
+        return;
+      }
+      // declared inside a block: analyzed in this pass, its messages kept for the merge
+      inlineOutput = new ByteArrayOutputStream();
+      log = new PrintStream(inlineOutput, true);
+    }
+    // a function inside a block can read the block's locals, so replaying it alone would lose those reads
+    if (cache == null || pass.parent() != null) return;
+    String fnName = name(fn);
+    long hash = hash(fn);
+    FunctionCache.Entry hit = upToDate(fn, hash);
+
+    if (hit != null) {
+      // unchanged since the last run: replay its contribution and skip the body
+      usage.reads.addAll(hit.reads);
+      usage.replayedVariables += hit.variables;
+      usage.replayedUnused.addAll(hit.unusedLocals);
+      usage.fnList.addAll(hit.functions);
+      ifs.ifTotal += hit.ifTotal;
+      ifs.ifWithoutElse += hit.ifWithoutElse;
+      magic.magicNumbers.addAll(hit.magicNumbers);
+      cache.put(fnName, hit);
+      if (isTestTarget(fn)) log.println("Test cases unchanged: CodeReview/EvalaTests_" + fnName + ".eva");
+      replayed = true;
+      pass.skipSubtree();
+      return;
+    }
 
-  @Override public Void visitExpressionStmt(Stmt.Expression stmt) {
-    stmt.expression.accept(this);
-    return null;
+    // Analyze with a fresh global-read set so the function's own contribution can be stored;
+    // its locals are the declarations numbered from here on
+    pending = new FunctionCache.Entry(hash);
+    outerReads = usage.reads;
+    usage.reads = pending.reads;
+    idsBefore = usage.nextId();
+    ifsBefore = ifs.ifTotal;
+    noElseBefore = ifs.ifWithoutElse;
+    magicBefore = magic.magicNumbers.size();
+    fnsBefore = usage.fnList.size();
   }
 
-  @Override public Void visitPrintStmt(Stmt.Print stmt) {
-    stmt.expression.accept(this);
-    return null;
+  @Override public void exitStmt(Stmt stmt, AnalysisPass pass) {
+    if (!(stmt instanceof Stmt.Function) || pass.functionDepth() != 0) return;
+    if (parallel) {
+      if (pass.parent() == null) return;    // dispatched in enterStmt
+      if (!replayed) exitInline((Stmt.Function) stmt);
+      log.flush();
+      slots.add(new Slot(null, CompletableFuture.completedFuture(new Analyzed(null, inlineOutput.toString()))));
+      log = System.out;
+      inlineOutput = null;
+      replayed = false;
+      return;
+    }
+    if (replayed) {
+      replayed = false;
+      return;
+    }
+    exitInline((Stmt.Function) stmt);
   }
 
-  @Override public Void visitBlockStmt(Stmt.Block stmt) {
-    for (Stmt s : stmt.statements) s.accept(this);
-    return null;
+  private void exitInline(Stmt.Function fn) {
+    List<TestCase> generated = isTestTarget(fn) ? writeTests(fn, tests, log) : null;
+
+    if (pending != null) {
+      usage.reads = outerReads;
+      usage.reads.addAll(pending.reads);
+      pending.variables = usage.variablesSince(idsBefore);
+      pending.unusedLocals.addAll(usage.unreadSince(idsBefore));
+      pending.ifTotal = ifs.ifTotal - ifsBefore;
+      pending.ifWithoutElse = ifs.ifWithoutElse - noElseBefore;
+      pending.magicNumbers.addAll(magic.magicNumbers.subList(magicBefore, magic.magicNumbers.size()));
+      pending.functions.addAll(usage.fnList.subList(fnsBefore, usage.fnList.size()));
+      pending.tests = generated;
+      cache.put(name(fn), pending);
+      pending = null;
+    }
   }
 
-  @Override public Void visitIfStmt(Stmt.If stmt) {
-    ifTotal++;
-    //System.out.println("iftotal from usage col: "+ifTotal);
-    if (stmt.elseBranch == null){
-      ifWithoutElse++;
-     // System.out.println("no else from usage col: "+ifWithoutElse);
-
-    } 
-    stmt.condition.accept(this);
-    stmt.thenBranch.accept(this);
-    if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
-    return null;
+  /** Build and write EvalaTests_<name>.eva from the variations tests collected for fn. */
+  private List<TestCase> writeTests(Stmt.Function fn, TestGenerator tests, PrintStream log) {
+    // look through the test variations collected for each parameter in tests.varCases
+    // build concrete TestCase objects by combining representative values
+    // for each parameter (no nested if/else; each variation provides its
+    // representative values via polymorphism).
+    String fnName = name(fn);
+    Timings timings = Session.current().timings;
+    long start = timings == null ? 0 : System.nanoTime();
+    long allocated = timings == null ? 0 : Timings.threadAllocatedBytes();
+    tests.out = log;
+    List<TestCase> generated = guidedTests
+        ? tests.generateGuidedTestCases(fnName, 1, fn, program)
+        : tests.generateTestCases(fnName, 1, fn.params);
+    TestPrinter tp = new TestPrinter(generated);
+    tp.log = log;
+    tp.writeToFile("EvalaTests_"+fnName);
+    if (timings != null) timings.tests(System.nanoTime() - start, Timings.threadAllocatedBytes() - allocated);
+    return generated;
   }
 
-  @Override public Void visitWhileStmt(Stmt.While stmt) {
-    stmt.condition.accept(this);
-    stmt.body.accept(this);
-    return null;
+  private long hash(Stmt.Function fn) {
+    return AstHasher.hash(fn) ^ (guidedTests ? programHash * 0x9E3779B97F4A7C15L + 1 : 0);
   }
 
-  @Override public Void visitFunctionStmt(Stmt.Function stmt) {
-    FnUsage fu = new FnUsage(stmt.name == null ? null : stmt.name.lexeme);
-    for (Token p : stmt.params) fu.params.add(p.lexeme);
-    fnStack.push(fu);
-    for (Stmt s : stmt.body) s.accept(this);
-    fnStack.pop();
-    fnList.add(fu);
-
-    if (fnStack.size() == 0) {
-      TestGenerator tg = new TestGenerator(stmt.params);
-      for (Stmt s : stmt.body) s.accept(tg);
-      //System.out.println(tg);
-
-      // look through the test variations collected for each parameter in tg.varCases
-      // build concrete TestCase objects by combining representative values
-      // for each parameter (no nested if/else; each variation provides its
-      // representative values via polymorphism).
-      List<TestCase> generated = tg.generateTestCases( 
-          stmt.name == null ? "<anonymous>" : stmt.name.lexeme,
-          1,
-          stmt.params);
-      TestPrinter tp = new TestPrinter(generated);
-      tp.writeToFile("EvalaTests_"+stmt.name.lexeme);
-
-      // for (TestCase tc : generated) { //generate the test file here 
-      //   System.out.println(tc);
-
-      // }
-    }
-
-    return null;
+  // The cached entry for fn if it can be replayed: same hash, and its test file (if wanted) still there
+  private FunctionCache.Entry upToDate(Stmt.Function fn, long hash) {
+    String fnName = name(fn);
+    FunctionCache.Entry hit = cache.lookup(fnName, hash);
+    boolean testsUpToDate = !isTestTarget(fn)
+        || (hit != null && hit.tests != null
+            && new java.io.File(Session.current().reviewDir(), "EvalaTests_" + fnName + ".eva").exists());
+    return testsUpToDate ? hit : null;
   }
 
-  @Override public Void visitReturnStmt(Stmt.Return stmt) {
-    if (stmt.value != null) stmt.value.accept(this);
-    return null;
+  // ---------------- parallel mode ----------------
+  // What one top-level function contributes (entry == null: already applied in the pass), and what it printed
+  private static final class Analyzed {
+    final FunctionCache.Entry entry;
+    final String output;
+    Analyzed(FunctionCache.Entry entry, String output) { this.entry = entry; this.output = output; }
   }
 
-  // ---------------- Expr visitors ----------------
-  @Override public Void visitAssignExpr(Expr.Assign expr) {
-    writes.add(expr.name.lexeme);
-    boolean prev = inAssignmentInitializer;
-    inAssignmentInitializer=true;
-    expr.value.accept(this);
-    inAssignmentInitializer=prev;
-    return null;
+  private static final class Slot {
+    final String fnName;
+    final Future<Analyzed> result;
+    int fnAt, magicAt;    // where its fnList and magic numbers go in the pass's lists
+    Slot(String fnName, Future<Analyzed> result) { this.fnName = fnName; this.result = result; }
   }
 
-  @Override public Void visitVariableExpr(Expr.Variable expr) {
-    reads.add(expr.name.lexeme);
-    // If inside a function, mark param-read if applicable
-    if (!fnStack.isEmpty() && fnStack.peek().params.contains(expr.name.lexeme)) {
-      fnStack.peek().paramsRead.add(expr.name.lexeme);
+  private Slot dispatch(Stmt.Function fn) {
+    String fnName = name(fn);
+    long hash = cache == null ? 0 : hash(fn);
+    FunctionCache.Entry hit = cache == null ? null : upToDate(fn, hash);
+    Future<Analyzed> result;
+    if (hit != null) {
+      String message = isTestTarget(fn) ? "Test cases unchanged: CodeReview/EvalaTests_" + fnName + ".eva\n" : "";
+      result = CompletableFuture.completedFuture(new Analyzed(hit, message));
+    } else {
+      Session session = Session.current().forWorker();
+      result = CompletableFuture.supplyAsync(() -> analyze(fn, hash, session), ForkJoinPool.commonPool());
     }
-    return null;
-  }
-
-  @Override public Void visitBinaryExpr(Expr.Binary expr) {
-    expr.left.accept(this); expr.right.accept(this);
-    return null;
+    Slot slot = new Slot(fnName, result);
+    slot.fnAt = usage.fnList.size();
+    slot.magicAt = magic.magicNumbers.size();
+    return slot;
   }
 
-  @Override public Void visitUnaryExpr(Expr.Unary expr) {
-    expr.right.accept(this);
-    return null;
-  }
-
-  @Override public Void visitGroupingExpr(Expr.Grouping expr) {
-    expr.expression.accept(this);
-    return null;
+  // Runs on a worker: the same analyses over fn alone, then its test file
+  private Analyzed analyze(Stmt.Function fn, long hash, Session session) {
+    // A pool thread can pick this up while it waits in a join for a run of its own, so put its session back after
+    Session previous = Session.current();
+    Session.begin(session);   // test files go under the caller's CodeReview/
+    try {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      PrintStream out = new PrintStream(output, true);
+      UsageAnalysis fnUsage = new UsageAnalysis();
+      IfElseAnalysis fnIfs = new IfElseAnalysis();
+      MagicNumberAnalysis fnMagic = new MagicNumberAnalysis();
+      TestGenerator fnTests = new TestGenerator();
+      new AnalysisPass(fnUsage, fnIfs, fnMagic, fnTests).walk(Collections.singletonList(fn));
+
+      FunctionCache.Entry entry = new FunctionCache.Entry(hash);
+      entry.reads.addAll(fnUsage.reads);
+      entry.variables = fnUsage.variablesSince(0);
+      entry.unusedLocals.addAll(fnUsage.unreadSince(0));
+      entry.ifTotal = fnIfs.ifTotal;
+      entry.ifWithoutElse = fnIfs.ifWithoutElse;
+      entry.magicNumbers.addAll(fnMagic.magicNumbers);
+      entry.functions.addAll(fnUsage.fnList);
+      entry.tests = isTestTarget(fn) ? writeTests(fn, fnTests, out) : null;
+      out.flush();
+      return new Analyzed(entry, output.toString());
+    } finally {
+      Session.begin(previous);
+    }
   }
 
-  @Override public Void visitCallExpr(Expr.Call expr) {
-    expr.callee.accept(this);
-    for (Expr a : expr.arguments) a.accept(this);
-    return null;
+  // Apply the slots in program order, as the sequential pass would have
+  private void mergeSlots() {
+    List<Analyzed> results = new ArrayList<>();
+    for (Slot slot : slots) {
+      Analyzed a = join(slot.result);
+      results.add(a);
+      System.out.print(a.output);
+      FunctionCache.Entry e = a.entry;
+      if (e == null) continue;
+      usage.reads.addAll(e.reads);
+      usage.replayedVariables += e.variables;
+      usage.replayedUnused.addAll(e.unusedLocals);
+      ifs.ifTotal += e.ifTotal;
+      ifs.ifWithoutElse += e.ifWithoutElse;
+      if (cache != null) cache.put(slot.fnName, e);
+    }
+    // ordered lists: insert back to front so the recorded positions stay valid
+    for (int i = slots.size() - 1; i >= 0; i--) {
+      FunctionCache.Entry e = results.get(i).entry;
+      if (e == null) continue;
+      usage.fnList.addAll(slots.get(i).fnAt, e.functions);
+      magic.magicNumbers.addAll(slots.get(i).magicAt, e.magicNumbers);
+    }
   }
 
-
-@Override public Void visitLiteralExpr(Expr.Literal expr) {
-  if (expr.value instanceof Double && !inAssignmentInitializer) {
-    // No token available, so we can't report a line. Use -1.
-    magicNumbers.add(new MagicNumber(String.valueOf(expr.value), -1));
+  private static Analyzed join(Future<Analyzed> result) {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while analyzing functions", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new IllegalStateException(cause);
+    }
   }
-  return null;
-}
-
 
-  @Override
-  public Void visitBreakStmt(Break stmt) {
-    // TODO Auto-generated method stub
-    throw new UnsupportedOperationException("Unimplemented method 'visitBreakStmt'");
+  private boolean isTestTarget(Stmt.Function stmt) {
+    return testTargets == null || testTargets.contains(stmt);
   }
 
-  @Override
-  public Void visitLogicalExpr(Logical expr) {
-    // TODO Auto-generated method stub
-    throw new UnsupportedOperationException("Unimplemented method 'visitLogicalExpr'");
+  private static String name(Stmt.Function fn) {
+    return fn.name == null ? "<anonymous>" : fn.name.lexeme;
   }
 }
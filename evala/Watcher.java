@@ -0,0 +1,259 @@
+package evala;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.*;
+
+/**
+ * --watch mode: regrades a script every time it is saved.
+ *
+ * The file is kept as a list of line-aligned regions, one per top-level
+ * declaration (plus the comments/blank lines before it). Each region keeps its
+ * own tokens, statements and comment counts. On a change only the regions
+ * overlapping the edited text are re-scanned and re-parsed; GradedCode.md is
+ * rewritten and EvalaTests_ files are regenerated only for functions whose
+ * region changed.
+ */
+final class Watcher {
+
+    // One top-level declaration and the text leading up to it
+    private static final class Region {
+        final int start, end;       // [start, end) offsets in the source
+        final int firstLine;
+        final int lineCount;        // newlines inside the region
+        final Scanner.CommentStats comments;
+        final List<Stmt> statements;
+
+        Region(int start, int end, int firstLine, int lineCount,
+               Scanner.CommentStats comments, List<Stmt> statements) {
+            this.start = start;
+            this.end = end;
+            this.firstLine = firstLine;
+            this.lineCount = lineCount;
+            this.comments = comments;
+            this.statements = statements;
+        }
+
+        Region shift(int by) {
+            return new Region(start + by, end + by, firstLine, lineCount, comments, statements);
+        }
+    }
+
+    private final Path file;
+    private String source = "";
+    private List<Region> regions = new ArrayList<>();
+
+    Watcher(Path file) {
+        this.file = file.toAbsolutePath();
+    }
+
+    void watch() throws IOException {
+        Session.current().script = file.toString();
+        update(read());
+        System.out.println("Watching " + file + " (Ctrl-C to stop)");
+
+        Path dir = file.getParent();
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+            for (;;) {
+                WatchKey key = watcher.take();
+                boolean touched = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (file.getFileName().equals(event.context())) touched = true;
+                }
+                key.reset();
+                if (!touched) continue;
+
+                Thread.sleep(50);   // editors often write a file in several steps
+                String next = read();
+                if (!next.equals(source)) update(next);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(file), Charset.defaultCharset());
+    }
+
+    /** Re-scan/re-parse only what changed between the current and next source, then regrade. */
+    private void update(String next) {
+        Session.current().hadError = false;
+
+        // unchanged prefix/suffix of the text
+        int prefix = 0;
+        int max = Math.min(source.length(), next.length());
+        while (prefix < max && source.charAt(prefix) == next.charAt(prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < max - prefix
+                && source.charAt(source.length() - 1 - suffix) == next.charAt(next.length() - 1 - suffix)) {
+            suffix++;
+        }
+
+        // Reuse regions entirely before the edit. The last of them is always redone
+        // in case the edit extends it (e.g. an 'else' added after an if).
+        List<Region> kept = new ArrayList<>();
+        for (Region r : regions) {
+            if (r.end < prefix) kept.add(r);
+        }
+        if (!kept.isEmpty()) kept.remove(kept.size() - 1);
+
+        // Reuse regions entirely after the edit as long as they didn't move to another line
+        int delta = next.length() - source.length();
+        int lineDelta = countLines(next, prefix, next.length() - suffix)
+                - countLines(source, prefix, source.length() - suffix);
+        List<Region> tail = new ArrayList<>();
+        if (lineDelta == 0) {
+            for (Region r : regions) {
+                if (r.start >= source.length() - suffix && r.start > prefix) tail.add(r.shift(delta));
+            }
+        }
+
+        int from = kept.isEmpty() ? 0 : kept.get(kept.size() - 1).end;
+        int firstLine = kept.isEmpty() ? 1 : lastLine(kept.get(kept.size() - 1));
+        int to = tail.isEmpty() ? next.length() : tail.get(0).start;
+
+        List<Region> fresh = scanRegions(next, from, to, firstLine);
+        if (fresh == null) {
+            // the edit reaches past its regions (brackets, an open comment): reparse everything
+            kept.clear();
+            tail.clear();
+            fresh = scanRegions(next, 0, next.length(), 1);
+        }
+        Set<Stmt.Function> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Region r : fresh) {
+            for (Stmt s : r.statements) if (s instanceof Stmt.Function) changed.add((Stmt.Function) s);
+        }
+
+        List<Region> all = new ArrayList<>(kept);
+        all.addAll(fresh);
+        all.addAll(tail);
+        Set<String> before = functionNames(regions);
+        this.regions = all;
+        this.source = next;
+
+        System.out.println("\n=== " + file.getFileName() + ": re-parsed " + fresh.size()
+                + " of " + all.size() + " declarations ===");
+        if (Session.current().hadError) {
+            System.out.println("Fix the syntax errors above to regrade.");
+            return;
+        }
+
+        deleteStaleTests(before, functionNames(all));
+        List<Stmt> statements = new ArrayList<>();
+        for (Region r : all) statements.addAll(r.statements);
+        Evala.grade(combinedComments(all), statements, changed);
+    }
+
+    /**
+     * Scan/parse source[from, to) and split it into line-aligned regions.
+     * Returns null if a partial chunk doesn't stand on its own: its brackets
+     * don't balance, or it ends inside a block comment or string, which in a
+     * full scan would swallow the code after it.
+     */
+    private List<Region> scanRegions(String text, int from, int to, int firstLine) {
+        String chunk = text.substring(from, to);
+        // errors are held back here; the region scans below report them
+        Scanner whole = new Scanner(chunk, 0, chunk.length(), firstLine);
+        TokenBuffer tokens = whole.scanTokens();
+        boolean partial = from > 0 || to < text.length();
+        if (partial && (whole.endedInside() || !balanced(tokens))) return null;
+        List<int[]> decls = Parser.topLevelRanges(tokens);
+
+        // region boundaries: end of the line holding each declaration's last token
+        List<Integer> ends = new ArrayList<>();
+        for (int[] d : decls) {
+            int last = d[1] - 1;
+            int end = chunk.indexOf('\n', tokens.start(last) + tokens.length(last));
+            end = end < 0 ? chunk.length() : end + 1;
+            // a declaration starting before that point shares the line: merge
+            if (!ends.isEmpty() && tokens.start(d[0]) < ends.get(ends.size() - 1)) {
+                ends.set(ends.size() - 1, end);
+            } else {
+                ends.add(end);
+            }
+        }
+        if (ends.isEmpty() || ends.get(ends.size() - 1) < chunk.length()) ends.add(chunk.length());
+
+        List<Region> out = new ArrayList<>();
+        int start = 0;
+        int line = firstLine;
+        for (int k = 0; k < ends.size(); k++) {
+            int end = ends.get(k);
+            if (end <= start) continue;
+            String part = chunk.substring(start, end);
+            Scanner scanner = new Scanner(part, 0, part.length(), line);
+            TokenBuffer regionTokens = scanner.scanTokens();
+            // a block comment or string opened on the region's last line runs on into the next one
+            if (scanner.endedInside() && k < ends.size() - 1) continue;
+            for (Scanner.LexError e : scanner.deferredErrors()) Evala.error(e.line, e.message);
+            List<Stmt> statements = new Parser(regionTokens).parse();
+            int lines = countLines(chunk, start, end);
+            out.add(new Region(from + start, from + end, line, lines, scanner.getCommentStats(), statements));
+            line += lines;
+            start = end;
+        }
+        return out;
+    }
+
+    private static boolean balanced(TokenBuffer tokens) {
+        int depth = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            switch (tokens.type(i)) {
+                case LEFT_PAREN: case LEFT_BRACE: depth++; break;
+                case RIGHT_PAREN: case RIGHT_BRACE: if (--depth < 0) return false; break;
+                default: break;
+            }
+        }
+        return depth == 0;
+    }
+
+    private static int lastLine(Region r) {
+        return r.firstLine + r.lineCount;
+    }
+
+    private static int countLines(String s, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) if (s.charAt(i) == '\n') n++;
+        return n;
+    }
+
+    /** Whole-file comment stats from the per-region ones. */
+    private static Scanner.CommentStats combinedComments(List<Region> regions) {
+        int single = 0, block = 0, code = 0, total = 1;
+        for (Region r : regions) {
+            single += r.comments.singleLine;
+            block += r.comments.blockLines;
+            code += r.comments.codeLines;
+            total = r.comments.totalLines;  // last line number of the last region
+        }
+        return new Scanner.CommentStats(single, block, code, total);
+    }
+
+    private static Set<String> functionNames(List<Region> regions) {
+        Set<String> names = new HashSet<>();
+        for (Region r : regions) {
+            for (Stmt s : r.statements) {
+                if (s instanceof Stmt.Function) names.add(((Stmt.Function) s).name.lexeme);
+            }
+        }
+        return names;
+    }
+
+    /** Remove EvalaTests_ files of functions that no longer exist. */
+    private static void deleteStaleTests(Set<String> before, Set<String> after) {
+        for (String name : before) {
+            if (after.contains(name)) continue;
+            java.io.File stale = new java.io.File(Session.current().reviewDir(), "EvalaTests_" + name + ".eva");
+            if (stale.delete()) System.out.println("Removed stale tests: CodeReview/" + stale.getName());
+        }
+    }
+}
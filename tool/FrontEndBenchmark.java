@@ -0,0 +1,68 @@
+package tool;
+
+import evala.AnalysisPass;
+import evala.IfElseAnalysis;
+import evala.MagicNumberAnalysis;
+import evala.Parser;
+import evala.Scanner;
+import evala.TestGenerator;
+import evala.TokenBuffer;
+import evala.UsageAnalysis;
+
+/**
+ * Compares running the front-end analyses as separate tree walks against one
+ * fused AnalysisPass, on a generated program with many functions.
+ *
+ * Usage: FrontEndBenchmark [functions] [iterations]
+ */
+public final class FrontEndBenchmark {
+    public static void main(String[] args) {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        String source = generate(functions);
+        long t0 = System.nanoTime();
+        TokenBuffer tokens = new Scanner(source).scanTokens();
+        long t1 = System.nanoTime();
+        var program = new Parser(tokens).parse();
+        long t2 = System.nanoTime();
+        System.out.printf("program: %d functions, %d chars, %d tokens%n", functions, source.length(), tokens.size());
+        System.out.printf("scan %.2f ms, parse %.2f ms%n", (t1 - t0) / 1e6, (t2 - t1) / 1e6);
+
+        long separate = 0, fused = 0;
+        for (int i = 0; i < iterations * 2; i++) {
+            boolean measure = i >= iterations;     // first half is JIT warm-up
+
+            long s = System.nanoTime();
+            new AnalysisPass(new UsageAnalysis()).walk(program);
+            new AnalysisPass(new IfElseAnalysis()).walk(program);
+            new AnalysisPass(new MagicNumberAnalysis()).walk(program);
+            new AnalysisPass(new TestGenerator()).walk(program);
+            long m = System.nanoTime();
+            new AnalysisPass(new UsageAnalysis(), new IfElseAnalysis(),
+                             new MagicNumberAnalysis(), new TestGenerator()).walk(program);
+            long e = System.nanoTime();
+
+            if (measure) {
+                separate += m - s;
+                fused += e - m;
+            }
+        }
+        System.out.printf("4 separate walks: %.3f ms/iteration%n", separate / 1e6 / iterations);
+        System.out.printf("1 fused pass:     %.3f ms/iteration%n", fused / 1e6 / iterations);
+    }
+
+    private static String generate(int functions) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            sb.append("fun f").append(i).append("(a, b, c) {\n")
+              .append("  var t = a * 2 + b;\n")
+              .append("  if (a < 10) { t = t - c; } else { t = t + 3.5; }\n")
+              .append("  while (t > 0 and b != 1) { t = t - 1; }\n")
+              .append("  return t + -c;\n")
+              .append("}\n");
+        }
+        for (int i = 0; i < functions; i++) sb.append("print f").append(i).append("(1, 2, 3);\n");
+        return sb.toString();
+    }
+}
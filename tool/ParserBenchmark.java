@@ -0,0 +1,68 @@
+package tool;
+
+import evala.ParallelParser;
+import evala.Parser;
+import evala.Scanner;
+import evala.TokenBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Parse throughput on an expression-heavy generated program (long operator
+ * chains, calls, unary operators and nested parentheses), sequential and
+ * with ParallelParser, plus the deepest parenthesized expression the parser
+ * accepts.
+ *
+ * Usage: ParserBenchmark [statements] [iterations]
+ */
+public final class ParserBenchmark {
+    public static void main(String[] args) {
+        int statements = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        String source = generate(statements);
+        TokenBuffer tokens = new Scanner(source).scanTokens();
+        System.out.printf("program: %d statements, %d tokens%n", statements, tokens.size());
+
+        // alternate the two so neither gets all the warm-up
+        long best = Long.MAX_VALUE, bestParallel = Long.MAX_VALUE;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            new Parser(tokens).parse();
+            best = Math.min(best, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            new ParallelParser(tokens).parse();
+            bestParallel = Math.min(bestParallel, System.nanoTime() - start);
+        }
+        System.out.printf("parse: best %.2f ms, %.1f M tokens/s%n", best / 1e6, tokens.size() / (best / 1e9) / 1e6);
+        System.out.printf("parallel parse (%d threads): best %.2f ms, %.1f M tokens/s%n",
+                ForkJoinPool.getCommonPoolParallelism(), bestParallel / 1e6, tokens.size() / (bestParallel / 1e9) / 1e6);
+
+        System.out.println("deepest parenthesized expression parsed: " + deepestNesting());
+    }
+
+    private static String generate(int statements) {
+        StringBuilder sb = new StringBuilder("fun f(a, b) { return a + b; }\nvar x = 1;\nvar y = 2;\n");
+        for (int i = 0; i < statements; i++) {
+            sb.append("x = (x * 3 + -y / 2 - f(x, y * 2)) * (y + ").append(i % 97)
+              .append(") - !(x < y and y >= 4 or x == y) + x * y - 1 + 2 - 3 + 4;\n");
+        }
+        return sb.toString();
+    }
+
+    // Doubles the nesting depth until parsing throws StackOverflowError (or 1M levels)
+    private static int deepestNesting() {
+        int ok = 0;
+        for (int depth = 1024; depth <= 1 << 20; depth *= 2) {
+            String src = "print " + "(".repeat(depth) + "1" + ")".repeat(depth) + ";";
+            TokenBuffer tokens = new Scanner(src).scanTokens();
+            try {
+                new Parser(tokens).parse();
+                ok = depth;
+            } catch (StackOverflowError e) {
+                break;
+            }
+        }
+        return ok;
+    }
+}
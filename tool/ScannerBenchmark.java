@@ -0,0 +1,55 @@
+package tool;
+
+import evala.ParallelScanner;
+import evala.Scanner;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tokenizer throughput in MB/s on a generated program that is mostly
+ * identifiers, keywords and number literals, sequential and with
+ * ParallelScanner on the common fork-join pool.
+ *
+ * Usage: ScannerBenchmark [lines] [iterations]
+ */
+public final class ScannerBenchmark {
+    public static void main(String[] args) {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        String source = generate(lines);
+        double megabytes = source.length() / 1e6;
+        int tokens = new Scanner(source).scanTokens().size();
+        System.out.printf("source: %.1f MB, %d tokens%n", megabytes, tokens);
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            new Scanner(source).scanTokens();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("scan: best %.2f ms, %.1f MB/s, %.1f M tokens/s%n",
+                best / 1e6, megabytes / (best / 1e9), tokens / (best / 1e9) / 1e6);
+
+        best = Long.MAX_VALUE;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            new ParallelScanner(source).scanTokens();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("parallel scan (%d threads): best %.2f ms, %.1f MB/s%n",
+                ForkJoinPool.getCommonPoolParallelism(), best / 1e6, megabytes / (best / 1e9));
+    }
+
+    private static String generate(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            switch (i % 4) {
+                case 0 -> sb.append("var total").append(i % 50).append(" = ").append(i).append(" * 2.5 + count;\n");
+                case 1 -> sb.append("if (total and !finished or value >= 10) print \"done\";\n");
+                case 2 -> sb.append("while (index < limit) { index = index + 1; } // step\n");
+                default -> sb.append("fun helper(first, second) { return first - second / 0.125; }\n");
+            }
+        }
+        return sb.toString();
+    }
+}
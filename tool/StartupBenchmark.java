@@ -0,0 +1,76 @@
+package tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures Evala's time-to-first-output: launches a fresh JVM running
+ * evala.Evala on a script and times how long until the first byte arrives
+ * on stdout, then until the process exits.
+ *
+ * Usage: StartupBenchmark <class path> <script> [runs] [jvm options...]
+ * e.g.   StartupBenchmark build/appcds/evala.jar scripts/sample.eva 20 -XX:SharedArchiveFile=build/appcds/evala.jsa
+ * (an AppCDS archive from tool/appcds.sh only applies with its jar as the class path)
+ */
+public class StartupBenchmark {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: StartupBenchmark <class path> <script> [runs] [jvm options...]");
+            System.exit(64);
+        }
+        String classPath = args[0];
+        String script = new File(args[1]).getAbsolutePath();
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        List<String> jvmOptions = args.length > 3
+                ? Arrays.asList(args).subList(3, args.length) : List.of();
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(jvmOptions);
+        command.addAll(List.of("-cp", new File(classPath).getAbsolutePath(), "evala.Evala", script));
+
+        // run in a scratch directory so CodeReview/ output doesn't land next to the script
+        File work = Files.createTempDirectory("evala-startup").toFile();
+
+        run(command, work);     // warm the OS file cache, not counted
+        long[] firstOutput = new long[runs];
+        long[] total = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long[] t = run(command, work);
+            firstOutput[i] = t[0];
+            total[i] = t[1];
+        }
+
+        Arrays.sort(firstOutput);
+        Arrays.sort(total);
+        System.out.println("command: " + String.join(" ", command));
+        System.out.printf("runs: %d%n", runs);
+        System.out.printf("time to first output: median %.1f ms, min %.1f ms%n",
+                firstOutput[runs / 2] / 1e6, firstOutput[0] / 1e6);
+        System.out.printf("total run time:       median %.1f ms, min %.1f ms%n",
+                total[runs / 2] / 1e6, total[0] / 1e6);
+    }
+
+    /** Returns {nanos to first stdout byte, nanos to exit}. */
+    private static long[] run(List<String> command, File dir) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process p = new ProcessBuilder(command).directory(dir)
+                .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        long first = -1;
+        try (InputStream in = p.getInputStream()) {
+            byte[] buf = new byte[8192];
+            for (int n; (n = in.read(buf)) != -1; ) {
+                if (first < 0 && n > 0) first = System.nanoTime() - start;
+            }
+        }
+        p.waitFor();
+        long end = System.nanoTime() - start;
+        return new long[] { first < 0 ? end : first, end };
+    }
+}
@@ -0,0 +1,72 @@
+package tool;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Renders a trace written by `evala --trace file` as text, one event per
+ * line: time since the trace began, source line, and the statement, call,
+ * return or error, indented by call depth.
+ *
+ * Usage: TraceDump <trace file>
+ */
+public class TraceDump {
+    private static final int MAGIC = 0x45565452;    // "EVTR"
+    private static final int VERSION = 1;
+    private static final String[] KINDS = { "", "call ", "return from ", "" };
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: TraceDump <trace file>");
+            System.exit(64);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])))) {
+            if (in.readInt() != MAGIC) fail("not an Evala trace");
+            int version = in.readUnsignedShort();
+            if (version != VERSION) fail("unsupported trace version " + version);
+
+            String[] labels = new String[(int) readVarLong(in)];
+            for (int i = 0; i < labels.length; i++) labels[i] = in.readUTF();
+
+            long recorded = readVarLong(in);
+            long kept = readVarLong(in);
+            System.out.printf("%d events recorded, last %d kept%n", recorded, kept);
+
+            long time = 0;
+            int depth = 0;
+            for (long n = 0; n < kept; n++) {
+                int kind = in.readUnsignedByte();
+                int node = (int) readVarLong(in);
+                int line = (int) readVarLong(in) - 1;
+                time += readVarLong(in);
+
+                if (kind == 2) depth = Math.max(0, depth - 1);
+                String where = line < 0 ? "" : "line " + line;
+                String label = node < labels.length ? labels[node] : "#" + node;
+                String kindName = kind < KINDS.length ? KINDS[kind] : "?" + kind + " ";
+                System.out.printf("%12.3f ms  %-10s %s%s%s%n",
+                        time / 1e6, where, "  ".repeat(Math.min(depth, 40)), kindName, label);
+                if (kind == 1) depth++;
+            }
+        } catch (EOFException e) {
+            fail("trace is truncated");
+        }
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    private static void fail(String message) {
+        System.err.println(message);
+        System.exit(65);
+    }
+}
@@ -0,0 +1,46 @@
+#!/bin/sh
+# Builds an application class-data-sharing (AppCDS) archive for Evala.
+#
+# The archive is produced by a training run over every script in scripts/,
+# so all classes used by scanning, parsing, grading, test generation and
+# interpretation are pre-parsed and verified. Later launches map the archive
+# instead of loading those classes from the class path.
+#
+# CDS only archives classes loaded from jar files (a non-empty directory on
+# the class path makes the JVM refuse to dump), so the classes are packaged
+# into <classes dir>/evala.jar and that jar must be the class path of every
+# run that uses the archive.
+#
+# The classes dir defaults to build/appcds (ignored by git), away from the
+# class files checked in under out/.
+#
+# Usage: tool/appcds.sh [classes dir] [archive]
+#   then: java -XX:SharedArchiveFile=<archive> -cp <classes dir>/evala.jar evala.Evala script.eva
+set -e
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+CLASSES=$(mkdir -p "${1:-$ROOT/build/appcds}" && cd "${1:-$ROOT/build/appcds}" && pwd)
+ARCHIVE=${2:-$CLASSES/evala.jsa}
+JAR=$CLASSES/evala.jar
+
+javac -encoding UTF-8 -d "$CLASSES" "$ROOT"/evala/*.java
+rm -f "$JAR" "$ARCHIVE"
+jar cf "$JAR" -C "$CLASSES" evala
+
+# Training run in a scratch directory so CodeReview/ output doesn't land in the repo.
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+cd "$WORK"
+cat "$ROOT"/scripts/*.eva > training.eva
+if ! java -XX:ArchiveClassesAtExit="$ARCHIVE" -cp "$JAR" evala.Evala training.eva > training.log; then
+    echo "Training run failed; its output:" >&2
+    cat training.log >&2
+    exit 1
+fi
+if [ ! -s "$ARCHIVE" ]; then
+    echo "No archive was written to $ARCHIVE" >&2
+    exit 1
+fi
+
+echo "AppCDS archive written to: $ARCHIVE"
+echo "Run with: java -XX:SharedArchiveFile=$ARCHIVE -cp $JAR evala.Evala script.eva"